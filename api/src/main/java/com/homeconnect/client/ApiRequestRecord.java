@@ -0,0 +1,115 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client;
+
+import static com.homeconnect.client.OkHttpHelper.formatJsonBody;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.homeconnect.client.model.ApiRequest;
+import com.homeconnect.client.model.HomeConnectRequest;
+import com.homeconnect.client.model.HomeConnectResponse;
+
+import okhttp3.Headers;
+import okhttp3.Request;
+import okio.Buffer;
+
+/**
+ * Raw record of a tracked API request.
+ *
+ * Keeps references to the immutable OkHttp request and headers and to the unformatted bodies. The
+ * {@link ApiRequest} model, with copied headers and pretty printed bodies, is only built once requested.
+ */
+@NonNullByDefault
+final class ApiRequestRecord {
+
+    private final long timestamp;
+    private final @Nullable Request request;
+    private final @Nullable String requestBody;
+    private final int responseCode;
+    private final @Nullable Headers responseHeaders;
+    private final @Nullable Buffer responseBody;
+
+    private @Nullable ApiRequest apiRequest;
+
+    ApiRequestRecord(Request request, @Nullable String requestBody, int responseCode,
+            @Nullable Headers responseHeaders, @Nullable Buffer responseBody) {
+        this.timestamp = System.currentTimeMillis();
+        this.request = request;
+        this.requestBody = requestBody;
+        this.responseCode = responseCode;
+        this.responseHeaders = responseHeaders;
+        this.responseBody = responseBody;
+    }
+
+    ApiRequestRecord(ApiRequest apiRequest) {
+        this.timestamp = apiRequest.getTime().toInstant().toEpochMilli();
+        this.request = null;
+        this.requestBody = null;
+        this.responseCode = 0;
+        this.responseHeaders = null;
+        this.responseBody = null;
+        this.apiRequest = apiRequest;
+    }
+
+    synchronized ApiRequest toApiRequest() {
+        ApiRequest apiRequest = this.apiRequest;
+        if (apiRequest == null) {
+            Request request = this.request;
+            if (request == null) {
+                throw new IllegalStateException("Neither raw nor materialized request recorded");
+            }
+            HomeConnectResponse response = null;
+            Headers responseHeaders = this.responseHeaders;
+            if (responseHeaders != null) {
+                Buffer responseBody = this.responseBody;
+                response = mapResponse(responseCode, responseHeaders,
+                        responseBody != null ? responseBody.clone().readUtf8() : null);
+            }
+            ZonedDateTime time = ZonedDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault());
+            apiRequest = new ApiRequest(time, mapRequest(request, requestBody), response);
+            this.apiRequest = apiRequest;
+        }
+        return apiRequest;
+    }
+
+    static HomeConnectRequest mapRequest(Request request, @Nullable String requestBody) {
+        return new HomeConnectRequest(request.url().toString(), request.method(), mapHeaders(request.headers()),
+                requestBody != null ? formatJsonBody(requestBody) : null);
+    }
+
+    static HomeConnectResponse mapResponse(int code, Headers headers, @Nullable String responseBody) {
+        return new HomeConnectResponse(code, mapHeaders(headers),
+                responseBody != null ? formatJsonBody(responseBody) : null);
+    }
+
+    private static Map<String, String> mapHeaders(Headers headers) {
+        HashMap<String, String> result = new HashMap<>();
+        headers.toMultimap().forEach((key, values) -> result.put(key, values.toString()));
+        return result;
+    }
+}
@@ -12,10 +12,19 @@
  */
 package com.homeconnect.client;
 
-import static com.homeconnect.client.OkHttpHelper.formatJsonBody;
-import static com.homeconnect.client.OkHttpHelper.requestBuilder;
+import static com.homeconnect.client.ApiRequestRecord.mapRequest;
+import static com.homeconnect.client.ApiRequestRecord.mapResponse;
+import static com.homeconnect.client.HomeConnectJsonDecoder.decodeAvailableProgramOptions;
+import static com.homeconnect.client.HomeConnectJsonDecoder.decodeAvailablePrograms;
+import static com.homeconnect.client.HomeConnectJsonDecoder.decodeHomeAppliance;
+import static com.homeconnect.client.HomeConnectJsonDecoder.decodeHomeAppliances;
+import static com.homeconnect.client.HomeConnectJsonDecoder.decodeProgram;
+import static com.homeconnect.client.HomeConnectJsonDecoder.decodeState;
+import static com.homeconnect.client.HomeConnectJsonDecoder.decodeStates;
+import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
 import static java.net.HttpURLConnection.HTTP_CONFLICT;
 import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
 import static java.net.HttpURLConnection.HTTP_NO_CONTENT;
 import static java.net.HttpURLConnection.HTTP_OK;
 import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
@@ -26,32 +35,43 @@ import static org.apache.commons.lang.StringUtils.containsIgnoreCase;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.time.ZonedDateTime;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.commons.collections4.QueueUtils;
-import org.apache.commons.collections4.queue.CircularFifoQueue;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.api.client.auth.oauth2.Credential;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import com.homeconnect.auth.OAuthAuthorization;
 import com.homeconnect.client.exception.ApplianceOfflineException;
 import com.homeconnect.client.exception.AuthorizationException;
 import com.homeconnect.client.exception.CommunicationException;
 import com.homeconnect.client.exception.HomeConnectException;
 import com.homeconnect.client.exception.InvalidScopeOrIdException;
+import com.homeconnect.client.history.ApiRequestLog;
+import com.homeconnect.client.history.RingBuffer;
+import com.homeconnect.client.metrics.Endpoint;
+import com.homeconnect.client.metrics.HomeConnectMetrics;
 import com.homeconnect.client.model.ApiRequest;
 import com.homeconnect.client.model.AvailableProgram;
 import com.homeconnect.client.model.AvailableProgramOption;
@@ -61,14 +81,19 @@ import com.homeconnect.client.model.HomeConnectRequest;
 import com.homeconnect.client.model.HomeConnectResponse;
 import com.homeconnect.client.model.Option;
 import com.homeconnect.client.model.Program;
+import com.homeconnect.client.model.TypedValue;
 import com.homeconnect.data.Resource;
 
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
 
 /**
  * Client for Home Connect API.
@@ -88,40 +113,140 @@ public class HomeConnectApiClient {
     public static final int VALUE_TYPE_INT = 1;
     public static final int VALUE_TYPE_BOOLEAN = 2;
     
-    private static final int COMMUNICATION_QUEUE_SIZE = 50;
+    private static final int COMMUNICATION_HISTORY_SIZE = 50;
+    private static final int DEFAULT_TRACKING_SAMPLE_RATE = 10;
+    private static final long MAX_RESPONSE_BODY_SIZE = 1024 * 1024;
+    private static final long RESPONSE_BODY_SEGMENT_SIZE = 8192;
+
+    private static final int PROGRAM_OPTIONS_CACHE_SIZE = 512;
+    public static final long PROGRAM_OPTIONS_REFRESH = TimeUnit.HOURS.toMillis(6);
+    public static final long PROGRAM_OPTIONS_EXPIRY = TimeUnit.DAYS.toMillis(2);
 
     private final Logger logger;
     private final String apiUrl;
+    private final HomeConnectTransport transport;
+    private final HomeConnectRequestScheduler scheduler;
     private final OkHttpClient client;
     private final Credential credential;
-    private final JsonParser jsonParser;
+    private final HomeConnectTokenManager tokenManager;
+
+    private final RingBuffer<ApiRequestRecord> communicationHistory;
+    private final AtomicLong trackingCounter = new AtomicLong();
+
+    private volatile TrackingMode trackingMode = TrackingMode.FULL;
+    private volatile @Nullable ApiRequestLog requestLog;
+    private volatile int trackingSampleRate = DEFAULT_TRACKING_SAMPLE_RATE;
+
+    private final LoadingCache<ProgramOptionsKey, List<AvailableProgramOption>> programOptionsCache;
+    private final Map<ProgramOptionsKey, Long> programOptionsLoaded = new ConcurrentHashMap<>();
+
+    private final HomeConnectStateCache stateCache;
+
+    private final HomeConnectApplianceRegistry applianceRegistry;
+
+    private final RequestCoalescer coalescer = new RequestCoalescer();
+
+    private final ResponseCache responseCache = new ResponseCache();
 
-    private final Queue<ApiRequest> communicationQueue;
+    private final HomeConnectMetrics metrics = new HomeConnectMetrics();
 
-    private final Map<String, List<AvailableProgramOption>> availableProgramOptionsCache;
+    // Shared by the blocking and asynchronous calls of a resource, as their GET requests are coalesced by URL
+    private final ResponseMapper<List<HomeAppliance>> homeAppliancesMapper =
+            (response, responseBody) -> decodeHomeAppliances(responseBody);
+    private final ResponseMapper<HomeAppliance> homeApplianceMapper =
+            (response, responseBody) -> decodeHomeAppliance(responseBody);
+    private final ResponseMapper<@Nullable Program> programMapper =
+            (response, responseBody) -> response.code() == HTTP_OK ? decodeProgram(responseBody) : null;
+    private final ResponseMapper<List<AvailableProgram>> availableProgramsMapper = this::mapToAvailablePrograms;
+    private final ResponseMapper<List<AvailableProgramOption>> availableProgramOptionsMapper =
+            this::mapToAvailableProgramOptions;
+    private final ResponseMapper<Data> stateMapper = (response, responseBody) -> decodeState(responseBody);
+    private final ResponseMapper<List<Data>> statusListMapper =
+            (response, responseBody) -> decodeStates(responseBody, "status");
+    private final ResponseMapper<List<Data>> settingsListMapper =
+            (response, responseBody) -> decodeStates(responseBody, "settings");
 
     public HomeConnectApiClient(String apiUrl, String username) throws AuthorizationException {
-        this(apiUrl, OAuthAuthorization.getCredentials(username), null);
+        this(HomeConnectTransport.getInstance(apiUrl), OAuthAuthorization.getCredentials(username),
+                HomeConnectRequestScheduler.getInstance(username), null);
     }
 
     public HomeConnectApiClient(String apiUrl, Credential credential,
             @Nullable List<ApiRequest> apiRequestHistory) {
+        this(HomeConnectTransport.getInstance(apiUrl), credential, apiRequestHistory);
+    }
+
+    public HomeConnectApiClient(HomeConnectTransport transport, Credential credential,
+            @Nullable List<ApiRequest> apiRequestHistory) {
+        this(transport, credential, HomeConnectRequestScheduler.getInstance(credential), apiRequestHistory);
+    }
+
+    public HomeConnectApiClient(HomeConnectTransport transport, Credential credential,
+            HomeConnectRequestScheduler scheduler, @Nullable List<ApiRequest> apiRequestHistory) {
         
-        this.apiUrl = apiUrl;
+        this.apiUrl = transport.getApiUrl();
+        this.transport = transport;
         this.credential = credential;
+        this.tokenManager = HomeConnectTokenManager.getInstance(credential);
+        this.tokenManager.addListener(metrics);
+        this.scheduler = scheduler;
         
-        client = new OkHttpClient();
+        client = transport.getClient();
         
-        jsonParser = new JsonParser();
-        communicationQueue = QueueUtils.synchronizedQueue(new CircularFifoQueue<>(COMMUNICATION_QUEUE_SIZE));
-        availableProgramOptionsCache = new ConcurrentHashMap<>();
+        communicationHistory = new RingBuffer<>(COMMUNICATION_HISTORY_SIZE);
+        programOptionsCache = CacheBuilder.newBuilder().maximumSize(PROGRAM_OPTIONS_CACHE_SIZE)
+                .refreshAfterWrite(PROGRAM_OPTIONS_REFRESH, TimeUnit.MILLISECONDS)
+                .expireAfterWrite(PROGRAM_OPTIONS_EXPIRY, TimeUnit.MILLISECONDS).build(new ProgramOptionsLoader());
+        stateCache = new HomeConnectStateCache();
+        applianceRegistry = new HomeConnectApplianceRegistry(this);
         
         if (apiRequestHistory != null) {
-            communicationQueue.addAll(apiRequestHistory);
+            apiRequestHistory.forEach(apiRequest -> communicationHistory.add(new ApiRequestRecord(apiRequest)));
         }
         logger = LoggerFactory.getLogger(HomeConnectApiClient.class);
     }
 
+    /**
+     * Create an event source client for the same account, sharing the transport and credential of this client.
+     *
+     * @param scheduler scheduler monitoring the event stream connections
+     * @return new event source client
+     */
+    public HomeConnectEventSourceClient createEventSourceClient(ScheduledExecutorService scheduler) {
+        return new HomeConnectEventSourceClient(transport, credential, scheduler, null);
+    }
+
+    /**
+     * Get the state cache served by {@link #get} and {@link #getAsync}. Register
+     * {@link HomeConnectStateCache#createListener} at the event source client of an appliance, to serve its
+     * settings and status without polling.
+     *
+     * @return state cache of this client
+     */
+    public HomeConnectStateCache getStateCache() {
+        return stateCache;
+    }
+
+    /**
+     * Get the registry of the home appliances of the account. Register
+     * {@link HomeConnectApplianceRegistry#createListener} at the event source client, to keep their connection
+     * state up to date without requests.
+     *
+     * @return appliance registry of this client
+     */
+    public HomeConnectApplianceRegistry getApplianceRegistry() {
+        return applianceRegistry;
+    }
+
+    /**
+     * Get the request metrics of this client, e.g. to register a listener bridging them to a monitoring system.
+     *
+     * @return metrics registry of this client
+     */
+    public HomeConnectMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Get all home appliances
      *
@@ -129,21 +254,22 @@ public class HomeConnectApiClient {
      * @throws HomeConnectException Exception in HomeConnect interface
      */
     public List<HomeAppliance> getHomeAppliances() throws HomeConnectException {
-        Request request = createGetRequest("/api/homeappliances");
-        try (Response response = client.newCall(request).execute();) {
-            checkResponseCode(HTTP_OK, request, response, null, null);
-
-            String responseBody = mapToString(response.body());
-            trackAndLogApiRequest(null, request, null, response, responseBody);
-
-            return mapToHomeAppliances(responseBody);
-        } catch (IOException | ApplianceOfflineException e) {
-            logger.warn("Failed to fetch home appliances! error={}", e.getMessage());
-            trackAndLogApiRequest(null, request, null, null, null);
+        try {
+            return executeCached(null, "/api/homeappliances", homeAppliancesMapper);
+        } catch (ApplianceOfflineException e) {
             throw new CommunicationException(e);
         }
     }
 
+    /**
+     * Get all home appliances asynchronously
+     *
+     * @return future of the list of {@link HomeAppliance}
+     */
+    public CompletableFuture<List<HomeAppliance>> getHomeAppliancesAsync() {
+        return enqueueCached(null, "/api/homeappliances", homeAppliancesMapper);
+    }
+
     /**
      * Get home appliance by id
      *
@@ -152,21 +278,25 @@ public class HomeConnectApiClient {
      * @throws HomeConnectException Exception in HomeConnect interface
      */
     public HomeAppliance getHomeAppliance(String haId) throws HomeConnectException {
-        Request request = createGetRequest("/api/homeappliances/" + haId);
-        try (Response response = client.newCall(request).execute()) {
-            checkResponseCode(HTTP_OK, request, response, haId, null);
-
-            String responseBody = mapToString(response.body());
-            trackAndLogApiRequest(haId, request, null, response, responseBody);
-
-            return mapToHomeAppliance(responseBody);
-        } catch (IOException | ApplianceOfflineException e) {
-            logger.warn("Failed to get home appliance! haId={}, error={}", haId, e.getMessage());
-            trackAndLogApiRequest(haId, request, null, null, null);
+        try {
+            return execute(haId, createGetRequest("/api/homeappliances/" + haId), null, singletonList(HTTP_OK),
+                    homeApplianceMapper);
+        } catch (ApplianceOfflineException e) {
             throw new CommunicationException(e);
         }
     }
 
+    /**
+     * Get home appliance by id asynchronously
+     *
+     * @param haId home appliance id
+     * @return future of the {@link HomeAppliance}
+     */
+    public CompletableFuture<HomeAppliance> getHomeApplianceAsync(String haId) {
+        return enqueue(haId, createGetRequest("/api/homeappliances/" + haId), null, singletonList(HTTP_OK),
+                homeApplianceMapper);
+    }
+
     /**
      * Get ambient light state of device.
      *
@@ -339,29 +469,94 @@ public class HomeConnectApiClient {
         putSettings(haId, new Data("BSH.Common.Setting.PowerState", state, null));
     }
 
+    /**
+     * Get all status values of a home appliance with a single request.
+     *
+     * @param haId home appliance id
+     * @return list of status {@link Data}
+     * @throws HomeConnectException Exception in HomeConnect interface
+     */
+    public List<Data> getAllStatus(String haId)
+            throws HomeConnectException {
+        return getDataList(haId, "/api/homeappliances/" + haId + "/status", statusListMapper);
+    }
+
+    public CompletableFuture<List<Data>> getAllStatusAsync(String haId) {
+        return getDataListAsync(haId, "/api/homeappliances/" + haId + "/status", statusListMapper);
+    }
+
+    /**
+     * Get all setting values of a home appliance with a single request.
+     *
+     * @param haId home appliance id
+     * @return list of setting {@link Data}
+     * @throws HomeConnectException Exception in HomeConnect interface
+     */
+    public List<Data> getAllSettings(String haId)
+            throws HomeConnectException {
+        return getDataList(haId, "/api/homeappliances/" + haId + "/settings", settingsListMapper);
+    }
+
+    public CompletableFuture<List<Data>> getAllSettingsAsync(String haId) {
+        return getDataListAsync(haId, "/api/homeappliances/" + haId + "/settings", settingsListMapper);
+    }
+
     public Data get(String haId, Resource resource)
             throws UnsupportedOperationException, HomeConnectException, InvalidScopeOrIdException {
 		switch (resource.getType()) {
 		case PROGRAM_ACTIVE:
-			if(getActiveProgram(haId) == null){
-				return new Data(resource.getKey(), "false", "boolean");
-			} else {
-				return new Data(resource.getKey(), "true", "boolean");
-			}
+			return mapToActiveProgramState(resource, getActiveProgram(haId));
 		case PROGRAM_SELECTED:
-			Program program = getSelectedProgram(haId);
-			return new Data (program.getKey(), program.getKey(), "String");
+			return mapToSelectedProgramState(getSelectedProgram(haId));
 		case PROGRAM_ACTIVE_OPTIONS:
             return getOptionActiveProgram(haId, resource.getKey());
 		case SETTINGS:
-			return getSetting(haId, resource.getKey());
 		case STATUS:
-			return getStatus(haId, resource.getKey());
+			Data cached = stateCache.get(haId, resource.getKey());
+			if (cached != null) {
+				return cached;
+			}
+			Data data = resource.getType() == Resource.Type.SETTINGS ? getSetting(haId, resource.getKey())
+					: getStatus(haId, resource.getKey());
+			stateCache.put(haId, data);
+			return data;
 		default:
 			logger.warn("Wrong type configured for resource {}", resource);
 			throw new UnsupportedOperationException("Wrong type configured for resource: " + resource);
 		}
     }
+
+    /**
+     * Get the current value of a resource asynchronously.
+     *
+     * @param haId home appliance id
+     * @param resource resource to read
+     * @return future of the {@link Data}, completed exceptionally with the same exceptions as {@link #get}
+     */
+    public CompletableFuture<Data> getAsync(String haId, Resource resource) {
+		switch (resource.getType()) {
+		case PROGRAM_ACTIVE:
+			return getActiveProgramAsync(haId).thenApply(program -> mapToActiveProgramState(resource, program));
+		case PROGRAM_SELECTED:
+			return getSelectedProgramAsync(haId).thenApply(program -> mapToSelectedProgramState(program));
+		case PROGRAM_ACTIVE_OPTIONS:
+			return getDataAsync(haId, "/api/homeappliances/" + haId + "/programs/active/options/" + resource.getKey());
+		case SETTINGS:
+		case STATUS:
+			Data cached = stateCache.get(haId, resource.getKey());
+			if (cached != null) {
+				return CompletableFuture.completedFuture(cached);
+			}
+			String path = resource.getType() == Resource.Type.SETTINGS ? "/settings/" : "/status/";
+			return getDataAsync(haId, "/api/homeappliances/" + haId + path + resource.getKey()).thenApply(data -> {
+				stateCache.put(haId, data);
+				return data;
+			});
+		default:
+			logger.warn("Wrong type configured for resource {}", resource);
+			return failedFuture(new UnsupportedOperationException("Wrong type configured for resource: " + resource));
+		}
+    }
     
     public void set(String haId, Resource resource, String data, String unit) 
             throws UnsupportedOperationException, HomeConnectException, InvalidScopeOrIdException {
@@ -369,7 +564,7 @@ public class HomeConnectApiClient {
         case PROGRAM_AVAILABLE:
         	break;
 		case PROGRAM_ACTIVE:
-			if(data == "true") {
+			if(Boolean.parseBoolean(data)) {
 				startSelectedProgram(haId);
 			} else {
 				stopProgram(haId);
@@ -389,6 +584,38 @@ public class HomeConnectApiClient {
 			throw new UnsupportedOperationException("Wrong type configured for resource: " + resource);
 		}
     }
+
+    /**
+     * Set the value of a resource asynchronously.
+     *
+     * @param haId home appliance id
+     * @param resource resource to write
+     * @param data value to write
+     * @param unit unit of the value
+     * @return future completed when the request finished, exceptionally with the same exceptions as {@link #set}
+     */
+    public CompletableFuture<Void> setAsync(String haId, Resource resource, String data, String unit) {
+		switch (resource.getType()) {
+		case PROGRAM_ACTIVE:
+			if (Boolean.parseBoolean(data)) {
+				return startSelectedProgramAsync(haId);
+			} else {
+				return stopProgramAsync(haId);
+			}
+		case SETTINGS:
+			stateCache.remove(haId, resource.getKey());
+			return putDataAsync(haId, "/api/homeappliances/" + haId + "/settings/" + resource.getKey(),
+					new Data(resource.getKey(), data, unit), resource.getValueType());
+		case PROGRAM_AVAILABLE:
+		case PROGRAM_SELECTED:
+		case PROGRAM_ACTIVE_OPTIONS:
+		case STATUS:
+			return CompletableFuture.completedFuture(null);
+		default:
+			logger.warn("Wrong type configured for resource {}", resource);
+			return failedFuture(new UnsupportedOperationException("Wrong type configured for resource: " + resource));
+		}
+    }
     
 //    /**
 //     * Get setpoint temperature of freezer
@@ -579,6 +806,16 @@ public class HomeConnectApiClient {
         return getProgram(haId, "/api/homeappliances/" + haId + "/programs/active");
     } 
 
+    /**
+     * Get active program of device asynchronously.
+     *
+     * @param haId home appliance id
+     * @return future of the {@link Program}, completed with null if there is no active program
+     */
+    public CompletableFuture<@Nullable Program> getActiveProgramAsync(String haId) {
+        return getProgramAsync(haId, "/api/homeappliances/" + haId + "/programs/active");
+    }
+
     /**
      * Get selected program of device.
      *
@@ -591,27 +828,58 @@ public class HomeConnectApiClient {
         return getProgram(haId, "/api/homeappliances/" + haId + "/programs/selected");
     }
 
+    /**
+     * Get selected program of device asynchronously.
+     *
+     * @param haId home appliance id
+     * @return future of the {@link Program}, completed with null if there is no selected program
+     */
+    public CompletableFuture<@Nullable Program> getSelectedProgramAsync(String haId) {
+        return getProgramAsync(haId, "/api/homeappliances/" + haId + "/programs/selected");
+    }
+
     public void setSelectedProgram(String haId, String program)
             throws HomeConnectException {
-        putData(haId, "/api/homeappliances/" + haId + "/programs/selected", new Data(program, null, null),
+        putData(haId, "/api/homeappliances/" + haId + "/programs/selected", new Data(program, TypedValue.NULL, null),
                 VALUE_TYPE_STRING);
     }
 
+    public CompletableFuture<Void> setSelectedProgramAsync(String haId, String program) {
+        return putDataAsync(haId, "/api/homeappliances/" + haId + "/programs/selected",
+                new Data(program, TypedValue.NULL, null), VALUE_TYPE_STRING);
+    }
+
     public void startProgram(String haId, String program)
             throws HomeConnectException {
-        putData(haId, "/api/homeappliances/" + haId + "/programs/active", new Data(program, null, null),
+        putData(haId, "/api/homeappliances/" + haId + "/programs/active", new Data(program, TypedValue.NULL, null),
                 VALUE_TYPE_STRING);
     }
+
+    public CompletableFuture<Void> startProgramAsync(String haId, String program) {
+        return putDataAsync(haId, "/api/homeappliances/" + haId + "/programs/active",
+                new Data(program, TypedValue.NULL, null), VALUE_TYPE_STRING);
+    }
     
 ////////////////////////////
     public void startSelectedProgram(String haId)
             throws HomeConnectException {
-//        @Nullable
-//        String selectedProgram = getRaw(haId, "/api/homeappliances/" + haId + "/programs/selected");
-    	String selectedProgram = "{ \"data\":{ \"key\": \""+getSelectedProgram(haId).getKey()+"\"}}";
-        if (selectedProgram != null) {
-            putRaw(haId, "/api/homeappliances/" + haId + "/programs/active", selectedProgram);
+        Program program = getSelectedProgram(haId);
+        if (program == null) {
+            throw new CommunicationException("No program selected for appliance: " + haId);
         }
+        String selectedProgram = "{ \"data\":{ \"key\": \"" + program.getKey() + "\"}}";
+        putRaw(haId, "/api/homeappliances/" + haId + "/programs/active", selectedProgram);
+    }
+
+    public CompletableFuture<Void> startSelectedProgramAsync(String haId) {
+        return getSelectedProgramAsync(haId).thenCompose(program -> {
+            if (program == null) {
+                return failedFuture(new CommunicationException("No program selected for appliance: " + haId));
+            }
+            String selectedProgram = "{ \"data\":{ \"key\": \"" + program.getKey() + "\"}}";
+            return putRawAsync(haId, "/api/homeappliances/" + haId + "/programs/active", selectedProgram)
+                    .thenApply(responseBody -> null);
+        });
     }
 
     public void startCustomProgram(String haId, String json)
@@ -627,55 +895,249 @@ public class HomeConnectApiClient {
                 new Option(key, value, unit), valueAsInt);
     }
 
+    public CompletableFuture<Void> setProgramOptionsAsync(String haId, String key, String value,
+            @Nullable String unit, boolean valueAsInt, boolean isProgramActive) {
+        String programState = isProgramActive ? "active" : "selected";
+
+        return putOptionAsync(haId, "/api/homeappliances/" + haId + "/programs/" + programState + "/options",
+                new Option(key, value, unit), valueAsInt);
+    }
+
+    /**
+     * Create a batch of writes, that are grouped by appliance and deduplicated before they are sent.
+     *
+     * @return empty write batch of this client
+     */
+    public HomeConnectWriteBatch createWriteBatch() {
+        return new HomeConnectWriteBatch(this);
+    }
+
+    /**
+     * Set several options of the active or selected program in one request.
+     *
+     * @param options options to set, mapped to whether their value is sent as integer
+     */
+    void putProgramOptions(String haId, Map<Option, Boolean> options, boolean isProgramActive)
+            throws HomeConnectException {
+        String path = "/api/homeappliances/" + haId + "/programs/" + (isProgramActive ? "active" : "selected")
+                + "/options";
+        String requestBodyPayload = mapToPayload(options);
+        execute(haId, createPutRequest(path, requestBodyPayload), requestBodyPayload,
+                singletonList(HTTP_NO_CONTENT), (response, responseBody) -> null);
+    }
+
+    CompletableFuture<Void> putProgramOptionsAsync(String haId, Map<Option, Boolean> options,
+            boolean isProgramActive) {
+        String path = "/api/homeappliances/" + haId + "/programs/" + (isProgramActive ? "active" : "selected")
+                + "/options";
+        String requestBodyPayload = mapToPayload(options);
+        return enqueue(haId, createPutRequest(path, requestBodyPayload), requestBodyPayload,
+                singletonList(HTTP_NO_CONTENT), (response, responseBody) -> null);
+    }
+
     public void stopProgram(String haId)
             throws HomeConnectException {
         sendDelete(haId, "/api/homeappliances/" + haId + "/programs/active");
     }
 
+    public CompletableFuture<Void> stopProgramAsync(String haId) {
+        return sendDeleteAsync(haId, "/api/homeappliances/" + haId + "/programs/active");
+    }
+
     public List<AvailableProgram> getPrograms(String haId)
             throws HomeConnectException {
         return getAvailablePrograms(haId, "/api/homeappliances/" + haId + "/programs");
     }
 
+    public CompletableFuture<List<AvailableProgram>> getProgramsAsync(String haId) {
+        return getAvailableProgramsAsync(haId, "/api/homeappliances/" + haId + "/programs");
+    }
+
     public List<AvailableProgram> getAvailablePrograms(String haId)
             throws HomeConnectException {
         return getAvailablePrograms(haId, "/api/homeappliances/" + haId + "/programs/available");
     }
 
+    public CompletableFuture<List<AvailableProgram>> getAvailableProgramsAsync(String haId) {
+        return getAvailableProgramsAsync(haId, "/api/homeappliances/" + haId + "/programs/available");
+    }
+
+    /**
+     * Get the options of a program. The options are cached per appliance and program, refreshed in the background
+     * on access after {@link #PROGRAM_OPTIONS_REFRESH} and expired after {@link #PROGRAM_OPTIONS_EXPIRY}.
+     *
+     * @param haId home appliance id
+     * @param programKey program key
+     * @return available options of the program
+     * @throws HomeConnectException Exception in HomeConnect interface
+     */
     public List<AvailableProgramOption> getProgramOptions(String haId, String programKey)
             throws HomeConnectException {
-        if (availableProgramOptionsCache.containsKey(programKey)) {
-            logger.debug("Returning cached options for '{}'.", programKey);
-            List<AvailableProgramOption> availableProgramOptions = availableProgramOptionsCache.get(programKey);
-            return availableProgramOptions != null ? availableProgramOptions : Collections.emptyList();
+        try {
+            return programOptionsCache.get(new ProgramOptionsKey(haId, programKey));
+
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof HomeConnectException) {
+                throw (HomeConnectException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new CommunicationException("Failed to load program options", cause != null ? cause : e);
         }
+    }
 
-        String path = "/api/homeappliances/" + haId + "/programs/available/" + programKey;
-        Request request = createGetRequest(path);
-        try (Response response = client.newCall(request).execute()) {
-            checkResponseCode(HTTP_OK, request, response, haId, null);
+    public CompletableFuture<List<AvailableProgramOption>> getProgramOptionsAsync(String haId, String programKey) {
+        ProgramOptionsKey key = new ProgramOptionsKey(haId, programKey);
+        List<AvailableProgramOption> cachedProgramOptions = programOptionsCache.getIfPresent(key);
+        if (cachedProgramOptions != null) {
+            // getIfPresent() never triggers refreshAfterWrite, so a due refresh is started here
+            long now = System.currentTimeMillis();
+            Long loaded = programOptionsLoaded.get(key);
+            if (loaded == null || now - loaded >= PROGRAM_OPTIONS_REFRESH) {
+                programOptionsLoaded.put(key, now);
+                programOptionsCache.refresh(key);
+            }
+            logger.debug("Returning cached options for '{}' of '{}'.", programKey, haId);
+            return CompletableFuture.completedFuture(cachedProgramOptions);
+        }
+        programOptionsLoaded.remove(key);
+        return loadProgramOptionsAsync(key).thenApply(availableProgramOptions -> {
+            programOptionsCache.put(key, availableProgramOptions);
+            programOptionsLoaded.put(key, System.currentTimeMillis());
+            return availableProgramOptions;
+        });
+    }
 
-            String responseBody = mapToString(response.body());
-            trackAndLogApiRequest(haId, request, null, response, responseBody);
+    /**
+     * Load the options of all available programs of an appliance into the cache, e.g. when connecting to it.
+     *
+     * @param haId home appliance id
+     * @return future completed, when the options of all programs are cached
+     */
+    public CompletableFuture<Void> prewarmProgramOptions(String haId) {
+        return getAvailableProgramsAsync(haId).thenCompose(programs -> CompletableFuture.allOf(programs.stream()
+                .map(program -> getProgramOptionsAsync(haId, program.getKey())).toArray(CompletableFuture[]::new)));
+    }
 
-            List<AvailableProgramOption> availableProgramOptions = mapToAvailableProgramOption(responseBody, haId);
-            availableProgramOptionsCache.put(programKey, availableProgramOptions);
-            return availableProgramOptions;
-        } catch (IOException e) {
-            logger.warn("Failed to get program options! haId={}, programKey={}, error={}", haId, programKey,
-                    e.getMessage());
-            trackAndLogApiRequest(haId, request, null, null, null);
-            throw new CommunicationException(e);
-        }
+    /**
+     * Drop the cached program options of an appliance.
+     *
+     * @param haId home appliance id
+     */
+    public void invalidateProgramOptions(String haId) {
+        programOptionsCache.asMap().keySet().removeIf(key -> haId.equals(key.haId));
+        programOptionsLoaded.keySet().removeIf(key -> haId.equals(key.haId));
+    }
+
+    private List<AvailableProgramOption> loadProgramOptions(ProgramOptionsKey key) throws HomeConnectException {
+        String path = "/api/homeappliances/" + key.haId + "/programs/available/" + key.programKey;
+        List<AvailableProgramOption> options = execute(key.haId, createGetRequest(path), null,
+                singletonList(HTTP_OK), availableProgramOptionsMapper);
+        programOptionsLoaded.put(key, System.currentTimeMillis());
+        return options;
+    }
+
+    private CompletableFuture<List<AvailableProgramOption>> loadProgramOptionsAsync(ProgramOptionsKey key) {
+        String path = "/api/homeappliances/" + key.haId + "/programs/available/" + key.programKey;
+        return enqueue(key.haId, createGetRequest(path), null, singletonList(HTTP_OK),
+                availableProgramOptionsMapper);
     }
 
     /**
-     * Get latest API requests.
+     * Get latest API requests. Headers and bodies of the tracked requests are formatted on demand.
      *
-     * @return thread safe queue
+     * @return snapshot of the tracked requests, oldest first
      */
     public Queue<ApiRequest> getLatestApiRequests() {
-        return communicationQueue;
+        List<ApiRequestRecord> records = communicationHistory.snapshot();
+        Queue<ApiRequest> apiRequests = new ArrayDeque<>(records.size());
+        records.forEach(record -> apiRequests.add(record.toApiRequest()));
+        return apiRequests;
+    }
+
+    /**
+     * Get the scheduler, all REST requests of this client wait for.
+     *
+     * @return request scheduler of the account
+     */
+    public HomeConnectRequestScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Keep the results of GET requests for a short time, to serve identical requests right after the
+     * first one completed. Results of an appliance are dropped, as soon as a command is sent to it.
+     *
+     * @param ttl time to keep results, 0 to only coalesce requests in flight
+     * @param unit time unit of the ttl
+     */
+    public void setCoalescingResultTtl(long ttl, TimeUnit unit) {
+        coalescer.setResultTtl(ttl, unit);
+    }
+
+    /**
+     * Cache the home appliances and their programs, which rarely change. Cached responses are served without
+     * a request until their max-age passed, and then revalidated with the server. Responses confirmed with
+     * {@code 304 Not Modified} are not parsed again. Entries of an appliance are dropped, as soon as a command
+     * is sent to it.
+     *
+     * @param enabled true to enable the response cache, false to disable and clear it
+     */
+    public void setResponseCacheEnabled(boolean enabled) {
+        responseCache.setEnabled(enabled);
+    }
+
+    /**
+     * Set how long cached responses are served without revalidation, unless the server sends a max-age.
+     *
+     * @param maxAge max-age of cached responses, 0 to revalidate each request
+     * @param unit time unit of the max-age
+     */
+    public void setResponseCacheMaxAge(long maxAge, TimeUnit unit) {
+        responseCache.setMaxAge(maxAge, unit);
+    }
+
+    public TrackingMode getTrackingMode() {
+        return trackingMode;
+    }
+
+    /**
+     * Set which requests are kept for {@link #getLatestApiRequests()}.
+     *
+     * @param trackingMode tracking mode
+     */
+    public void setTrackingMode(TrackingMode trackingMode) {
+        this.trackingMode = trackingMode;
+        if (trackingMode == TrackingMode.OFF) {
+            communicationHistory.clear();
+        }
+    }
+
+    /**
+     * Set the sample rate of the {@link TrackingMode#SAMPLED} mode.
+     *
+     * @param sampleRate track every n-th successful request
+     */
+    public void setTrackingSampleRate(int sampleRate) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("Sample rate must be positive: " + sampleRate);
+        }
+        this.trackingSampleRate = sampleRate;
+    }
+
+    public @Nullable ApiRequestLog getApiRequestLog() {
+        return requestLog;
+    }
+
+    /**
+     * Persist all API requests in a compact log, independent of the {@link TrackingMode}.
+     *
+     * @param requestLog request log or null to disable it
+     */
+    public void setApiRequestLog(@Nullable ApiRequestLog requestLog) {
+        this.requestLog = requestLog;
     }
 
     private Data getOptionActiveProgram(String haId, String option) 
@@ -695,6 +1157,7 @@ public class HomeConnectApiClient {
 
     private void putSettings(String haId, Data data, int valueType)
             throws HomeConnectException {
+        stateCache.remove(haId, data.getName());
         putData(haId, "/api/homeappliances/" + haId + "/settings/" + data.getName(), data, valueType);
     }
 
@@ -703,211 +1166,293 @@ public class HomeConnectApiClient {
         return getData(haId, "/api/homeappliances/" + haId + "/status/" + status);
     }
 
-    private @Nullable String getRaw(String haId, String path)
-            throws HomeConnectException {
-        return getRaw(haId, path, false);
-    }
-
-    private @Nullable String getRaw(String haId, String path, boolean ignoreResponseCode)
-            throws HomeConnectException {
-        Request request = createGetRequest(path);
-        try (Response response = client.newCall(request).execute()) {
-            checkResponseCode(HTTP_OK, request, response, haId, null);
-
-            String responseBody = mapToString(response.body());
-            trackAndLogApiRequest(haId, request, null, response, responseBody);
-
-            if (ignoreResponseCode || response.code() == HTTP_OK) {
-                return responseBody;
-            }
-        } catch (IOException e) {
-            logger.warn("Failed to get raw! haId={}, path={}, error={}", haId, path, e.getMessage());
-            trackAndLogApiRequest(haId, request, null, null, null);
-            throw new CommunicationException(e);
-        }
-        return null;
-    }
-
     private String putRaw(String haId, String path, String requestBodyPayload)
             throws HomeConnectException {
-		@Deprecated
-        RequestBody requestBody = RequestBody.create(BSH_JSON_V1_MEDIA_TYPE,
-                requestBodyPayload.getBytes(StandardCharsets.UTF_8));
-
-        Request request = requestBuilder(credential).url(apiUrl + path).header(CONTENT_TYPE, BSH_JSON_V1)
-                .header(ACCEPT, BSH_JSON_V1).put(requestBody).build();
-        try (Response response = client.newCall(request).execute()) {
-            checkResponseCode(HTTP_NO_CONTENT, request, response, haId, requestBodyPayload);
+        return execute(haId, createPutRequest(path, requestBodyPayload), requestBodyPayload,
+                singletonList(HTTP_NO_CONTENT), (response, responseBody) -> responseBody.readUtf8());
+    }
 
-            String responseBody = mapToString(response.body());
-            trackAndLogApiRequest(haId, request, requestBodyPayload, response, responseBody);
-            return responseBody;
-        } catch (IOException e) {
-            logger.warn("Failed to put raw! haId={}, path={}, payload={}, error={}", haId, path, requestBodyPayload,
-                    e.getMessage());
-            trackAndLogApiRequest(haId, request, requestBodyPayload, null, null);
-            throw new CommunicationException(e);
-        }
+    private CompletableFuture<String> putRawAsync(String haId, String path, String requestBodyPayload) {
+        return enqueue(haId, createPutRequest(path, requestBodyPayload), requestBodyPayload,
+                singletonList(HTTP_NO_CONTENT), (response, responseBody) -> responseBody.readUtf8());
     }
 
     private @Nullable Program getProgram(String haId, String path)
             throws HomeConnectException {
-        Request request = createGetRequest(path);
-        try (Response response = client.newCall(request).execute()) {
-            checkResponseCode(asList(HTTP_OK, HTTP_NOT_FOUND), request, response, haId, null);
-
-            String responseBody = mapToString(response.body());
-            trackAndLogApiRequest(haId, request, null, response, responseBody);
+        return execute(haId, createGetRequest(path), null, asList(HTTP_OK, HTTP_NOT_FOUND),
+                programMapper);
+    }
 
-            if (response.code() == HTTP_OK) {
-                return mapToProgram(responseBody);
-            }
-        } catch (IOException e) {
-            logger.warn("Failed to get program! haId={}, path={}, error={}", haId, path, e.getMessage());
-            trackAndLogApiRequest(haId, request, null, null, null);
-            throw new CommunicationException(e);
-        }
-        return null;
+    private CompletableFuture<@Nullable Program> getProgramAsync(String haId, String path) {
+        return enqueue(haId, createGetRequest(path), null, asList(HTTP_OK, HTTP_NOT_FOUND),
+                programMapper);
     }
     
     private List<AvailableProgram> getAvailablePrograms(String haId, String path)
             throws HomeConnectException {
-        Request request = createGetRequest(path);
-        try (Response response = client.newCall(request).execute()) {
-            checkResponseCode(HTTP_OK, request, response, haId, null);
-
-            String responseBody = mapToString(response.body());
-            trackAndLogApiRequest(haId, request, null, response, responseBody);
+        return executeCached(haId, path, availableProgramsMapper);
+    }
 
-            return mapToAvailablePrograms(responseBody, haId);
-        } catch (IOException e) {
-            logger.warn("Failed to get available programs! haId={}, path={}, error={}", haId, path, e.getMessage());
-            trackAndLogApiRequest(haId, request, null, null, null);
-            throw new CommunicationException(e);
-        }
+    private CompletableFuture<List<AvailableProgram>> getAvailableProgramsAsync(String haId, String path) {
+        return enqueueCached(haId, path, availableProgramsMapper);
     }
 
     private void sendDelete(String haId, String path)
             throws HomeConnectException {
-        Request request = requestBuilder(credential).url(apiUrl + path).header(ACCEPT, BSH_JSON_V1).delete()
-                .build();
-        try (Response response = client.newCall(request).execute()) {
-            checkResponseCode(HTTP_NO_CONTENT, request, response, haId, null);
+        execute(haId, createDeleteRequest(path), null, singletonList(HTTP_NO_CONTENT),
+                (response, responseBody) -> null);
+    }
 
-            trackAndLogApiRequest(haId, request, null, response, mapToString(response.body()));
-        } catch (IOException e) {
-            logger.warn("Failed to send delete! haId={}, path={}, error={}", haId, path, e.getMessage());
-            trackAndLogApiRequest(haId, request, null, null, null);
-            throw new CommunicationException(e);
-        }
+    private CompletableFuture<Void> sendDeleteAsync(String haId, String path) {
+        return enqueue(haId, createDeleteRequest(path), null, singletonList(HTTP_NO_CONTENT),
+                (response, responseBody) -> null);
     }
 
     private Data getData(String haId, String path)
             throws HomeConnectException {
-        Request request = createGetRequest(path);
-        try (Response response = client.newCall(request).execute()) {
-            checkResponseCode(HTTP_OK, request, response, haId, null);
+        return execute(haId, createGetRequest(path), null, singletonList(HTTP_OK),
+                stateMapper);
+    }
 
-            String responseBody = mapToString(response.body());
-            trackAndLogApiRequest(haId, request, null, response, responseBody);
+    private CompletableFuture<Data> getDataAsync(String haId, String path) {
+        return enqueue(haId, createGetRequest(path), null, singletonList(HTTP_OK),
+                stateMapper);
+    }
 
-            return mapToState(responseBody);
-        } catch (IOException e) {
-            logger.warn("Failed to get data! haId={}, path={}, error={}", haId, path, e.getMessage());
-            trackAndLogApiRequest(haId, request, null, null, null);
-            throw new CommunicationException(e);
-        }
+    private List<Data> getDataList(String haId, String path, ResponseMapper<List<Data>> mapper)
+            throws HomeConnectException {
+        List<Data> dataList = execute(haId, createGetRequest(path), null, singletonList(HTTP_OK), mapper);
+        dataList.forEach(data -> stateCache.put(haId, data));
+        return dataList;
+    }
+
+    private CompletableFuture<List<Data>> getDataListAsync(String haId, String path,
+            ResponseMapper<List<Data>> mapper) {
+        return enqueue(haId, createGetRequest(path), null, singletonList(HTTP_OK), mapper).thenApply(dataList -> {
+                    dataList.forEach(data -> stateCache.put(haId, data));
+                    return dataList;
+                });
     }
 
     private void putData(String haId, String path, Data data, int valueType)
             throws HomeConnectException {
-        JsonObject innerObject = new JsonObject();
-        innerObject.addProperty("key", data.getName());
+        String requestBodyPayload = mapToPayload(data, valueType);
+        execute(haId, createPutRequest(path, requestBodyPayload), requestBodyPayload,
+                singletonList(HTTP_NO_CONTENT), (response, responseBody) -> null);
+    }
 
-        if (data.getValue() != null) {
-            if (valueType == VALUE_TYPE_INT) {
-                innerObject.addProperty("value", data.getValueAsInt());
-            } else if (valueType == VALUE_TYPE_BOOLEAN) {
-                innerObject.addProperty("value", data.getValueAsBoolean());
-            } else {
-                innerObject.addProperty("value", data.getValue());
-            }
-        }
+    private CompletableFuture<Void> putDataAsync(String haId, String path, Data data, int valueType) {
+        String requestBodyPayload = mapToPayload(data, valueType);
+        return enqueue(haId, createPutRequest(path, requestBodyPayload), requestBodyPayload,
+                singletonList(HTTP_NO_CONTENT), (response, responseBody) -> null);
+    }
 
-        if (data.getUnit() != null) {
-            innerObject.addProperty("unit", data.getUnit());
-        }
+    private void putOption(String haId, String path, Option option, boolean asInt)
+            throws HomeConnectException {
+        String requestBodyPayload = mapToPayload(option, asInt);
+        execute(haId, createPutRequest(path, requestBodyPayload), requestBodyPayload,
+                singletonList(HTTP_NO_CONTENT), (response, responseBody) -> null);
+    }
 
-        JsonObject dataObject = new JsonObject();
-        dataObject.add("data", innerObject);
-        String requestBodyPayload = dataObject.toString();
+    private CompletableFuture<Void> putOptionAsync(String haId, String path, Option option, boolean asInt) {
+        String requestBodyPayload = mapToPayload(option, asInt);
+        return enqueue(haId, createPutRequest(path, requestBodyPayload), requestBodyPayload,
+                singletonList(HTTP_NO_CONTENT), (response, responseBody) -> null);
+    }
 
-        RequestBody requestBody = RequestBody.create(BSH_JSON_V1_MEDIA_TYPE,
-                requestBodyPayload.getBytes(StandardCharsets.UTF_8));
+    /**
+     * Execute the request on the calling thread and map the response body.
+     * Identical GET requests in flight are coalesced, while other requests invalidate coalesced results.
+     */
+    private <T> T execute(@Nullable String haId, Request request, @Nullable String requestPayload,
+            List<Integer> desiredCodes, ResponseMapper<T> mapper) throws HomeConnectException {
+        if (isCoalescable(request)) {
+            return coalescer.execute(getCoalescingKey(request), haId,
+                    () -> executeCall(haId, request, requestPayload, desiredCodes, mapper));
+        }
+        try {
+            return executeCall(haId, request, requestPayload, desiredCodes, mapper);
+        } finally {
+            if (haId != null) {
+                coalescer.invalidate(haId);
+                responseCache.invalidate(haId);
+            }
+        }
+    }
 
-        Request request = requestBuilder(credential).url(apiUrl + path).header(CONTENT_TYPE, BSH_JSON_V1)
-                .header(ACCEPT, BSH_JSON_V1).put(requestBody).build();
-        try (Response response = client.newCall(request).execute()) {
-            checkResponseCode(HTTP_NO_CONTENT, request, response, haId, requestBodyPayload);
+    private <T> T executeCall(@Nullable String haId, Request scheduledRequest, @Nullable String requestPayload,
+            List<Integer> desiredCodes, ResponseMapper<T> mapper) throws HomeConnectException {
+        Endpoint endpoint = Endpoint.of(scheduledRequest.url().encodedPath());
+        long scheduled = System.nanoTime();
+        try {
+            scheduler.acquire(haId, HomeConnectRequestScheduler.getPriority(scheduledRequest.method()));
+            long sent = System.nanoTime();
+            metrics.onRateLimiterWait(endpoint, sent - scheduled);
+
+            // The token may have been refreshed while waiting for the rate limit
+            Request request = tokenManager.authorize(scheduledRequest);
+            try (Response response = client.newCall(request).execute()) {
+                metrics.onResponse(endpoint, response.code(), System.nanoTime() - sent);
+                return handleResponse(haId, request, requestPayload, desiredCodes, response, mapper);
+            } catch (IOException e) {
+                logger.warn("Failed to execute request! haId={}, method={}, path={}, error={}", haId,
+                        request.method(), request.url().encodedPath(), e.getMessage());
+                trackAndLogApiRequest(haId, request, requestPayload, null, null);
+                throw new CommunicationException(e);
+            }
+        } catch (HomeConnectException | RuntimeException e) {
+            metrics.onError(endpoint, e);
+            throw e;
+        }
+    }
 
-            trackAndLogApiRequest(haId, request, requestBodyPayload, response, mapToString(response.body()));
-        } catch (IOException e) {
-            logger.warn("Failed to put data! haId={}, path={}, data={}, valueType={}, error={}", haId, path, data,
-                    valueType, e.getMessage());
-            trackAndLogApiRequest(haId, request, requestBodyPayload, null, null);
-            throw new CommunicationException(e);
+    /**
+     * Enqueue the request on the OkHttp dispatcher and map the response body once it arrives.
+     * The returned future fails with the same exceptions, the blocking {@link #execute} would throw.
+     */
+    private <T> CompletableFuture<T> enqueue(@Nullable String haId, Request request,
+            @Nullable String requestPayload, List<Integer> desiredCodes, ResponseMapper<T> mapper) {
+        if (isCoalescable(request)) {
+            return coalescer.enqueue(getCoalescingKey(request), haId,
+                    () -> enqueueCall(haId, request, requestPayload, desiredCodes, mapper));
+        }
+        CompletableFuture<T> future = enqueueCall(haId, request, requestPayload, desiredCodes, mapper);
+        if (haId != null) {
+            future.whenComplete((result, error) -> {
+                coalescer.invalidate(haId);
+                responseCache.invalidate(haId);
+            });
         }
+        return future;
     }
 
-    private void putOption(String haId, String path, Option option, boolean asInt)
+    /**
+     * Execute the GET request of a slow changing resource through the {@link ResponseCache}, if enabled.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T executeCached(@Nullable String haId, String path, ResponseMapper<T> mapper)
             throws HomeConnectException {
-        JsonObject innerObject = new JsonObject();
-        innerObject.addProperty("key", option.getKey());
-
-        if (option.getValue() != null) {
-            if (asInt) {
-                innerObject.addProperty("value", option.getValueAsInt());
-            } else {
-                innerObject.addProperty("value", option.getValue());
-            }
+        Request request = createGetRequest(path);
+        if (!responseCache.isEnabled()) {
+            return execute(haId, request, null, singletonList(HTTP_OK), mapper);
         }
-
-        if (option.getUnit() != null) {
-            innerObject.addProperty("unit", option.getUnit());
+        String url = request.url().toString();
+        ResponseCache.Entry entry = responseCache.get(url);
+        if (entry != null && entry.isFresh()) {
+            return (T) entry.getValue();
         }
+        return execute(haId, ResponseCache.revalidate(request, entry), null, asList(HTTP_OK, HTTP_NOT_MODIFIED),
+                new CachingMapper<>(url, haId, entry, mapper));
+    }
 
-        JsonArray optionsArray = new JsonArray();
-        optionsArray.add(innerObject);
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> enqueueCached(@Nullable String haId, String path, ResponseMapper<T> mapper) {
+        if (!responseCache.isEnabled()) {
+            return enqueue(haId, createGetRequest(path), null, singletonList(HTTP_OK), mapper);
+        }
+        Request request = createGetRequest(path);
+        String url = request.url().toString();
+        ResponseCache.Entry entry = responseCache.get(url);
+        if (entry != null && entry.isFresh()) {
+            return CompletableFuture.completedFuture((T) entry.getValue());
+        }
+        return enqueue(haId, ResponseCache.revalidate(request, entry), null,
+                asList(HTTP_OK, HTTP_NOT_MODIFIED), new CachingMapper<>(url, haId, entry, mapper));
+    }
+
+    private <T> CompletableFuture<T> enqueueCall(@Nullable String haId, Request request,
+            @Nullable String requestPayload, List<Integer> desiredCodes, ResponseMapper<T> mapper) {
+        Endpoint endpoint = Endpoint.of(request.url().encodedPath());
+        long scheduled = System.nanoTime();
+        CompletableFuture<Void> ticket = scheduler.schedule(haId,
+                HomeConnectRequestScheduler.getPriority(request.method()));
+
+        // The token may have been refreshed while waiting for the rate limit
+        CompletableFuture<T> future = ticket.thenCompose(ready -> {
+            metrics.onRateLimiterWait(endpoint, System.nanoTime() - scheduled);
+            return tokenManager.authorizeAsync(request);
+        }).thenCompose(authorized -> sendCall(haId, endpoint, authorized, requestPayload, desiredCodes, mapper));
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                ticket.cancel(false);
+            } else if (error != null) {
+                metrics.onError(endpoint,
+                        error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            }
+        });
+        return future;
+    }
+
+    private <T> CompletableFuture<T> sendCall(@Nullable String haId, Endpoint endpoint, Request request,
+            @Nullable String requestPayload, List<Integer> desiredCodes, ResponseMapper<T> mapper) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Call call = client.newCall(request);
+        long sent = System.nanoTime();
+        call.enqueue(new Callback() {
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                logger.warn("Failed to execute request! haId={}, method={}, path={}, error={}", haId,
+                        request.method(), request.url().encodedPath(), e.getMessage());
+                trackAndLogApiRequest(haId, request, requestPayload, null, null);
+                future.completeExceptionally(new CommunicationException(e));
+            }
 
-        JsonObject optionsObject = new JsonObject();
-        optionsObject.add("options", optionsArray);
+            @Override
+            public void onResponse(Call call, Response response) {
+                metrics.onResponse(endpoint, response.code(), System.nanoTime() - sent);
+                try (Response closeableResponse = response) {
+                    future.complete(handleResponse(haId, request, requestPayload, desiredCodes, closeableResponse,
+                            mapper));
+                } catch (IOException e) {
+                    onFailure(call, e);
+                } catch (HomeConnectException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        return future;
+    }
 
-        JsonObject dataObject = new JsonObject();
-        dataObject.add("data", optionsObject);
+    private static boolean isCoalescable(Request request) {
+        return "GET".equals(request.method());
+    }
 
-        String requestBodyPayload = dataObject.toString();
+    /**
+     * Requests are coalesced by method and URL, so blocking and asynchronous callers of a resource share a flight.
+     * Each URL is mapped to a single result type by the shared response mappers.
+     */
+    private static String getCoalescingKey(Request request) {
+        return request.method() + " " + request.url();
+    }
 
-        RequestBody requestBody = RequestBody.create(BSH_JSON_V1_MEDIA_TYPE,
-                requestBodyPayload.getBytes(StandardCharsets.UTF_8));
+    private <T> T handleResponse(@Nullable String haId, Request request, @Nullable String requestPayload,
+            List<Integer> desiredCodes, Response response, ResponseMapper<T> mapper)
+            throws HomeConnectException, IOException {
+        checkResponseCode(desiredCodes, request, response, haId, requestPayload);
 
-        Request request = requestBuilder(credential).url(apiUrl + path).header(CONTENT_TYPE, BSH_JSON_V1)
-                .header(ACCEPT, BSH_JSON_V1).put(requestBody).build();
-        try (Response response = client.newCall(request).execute()) {
-            checkResponseCode(HTTP_NO_CONTENT, request, response, haId, requestBodyPayload);
+        Buffer responseBody = readBody(response.body());
+        trackAndLogApiRequest(haId, request, requestPayload, response, responseBody);
 
-            trackAndLogApiRequest(haId, request, requestBodyPayload, response, mapToString(response.body()));
+        try {
+            return mapper.map(response, responseBody);
         } catch (IOException e) {
-            logger.warn("Failed to put option! haId={}, path={}, option={}, asInt={}, error={}", haId, path, option,
-                    asInt, e.getMessage());
-            trackAndLogApiRequest(haId, request, requestBodyPayload, null, null);
-            throw new CommunicationException(e);
+            // The request is already tracked, only failures of the transport are handled as missing response
+            logger.warn("Failed to decode response! haId={}, method={}, path={}, error={}", haId, request.method(),
+                    request.url().encodedPath(), e.getMessage());
+            throw new CommunicationException("Failed to decode response", e);
         }
     }
 
-    private void checkResponseCode(int desiredCode, Request request, Response response, @Nullable String haId,
-            @Nullable String requestPayload)
-            throws CommunicationException, AuthorizationException, ApplianceOfflineException, InvalidScopeOrIdException {
-        checkResponseCode(singletonList(desiredCode), request, response, haId, requestPayload);
+    private static <T> CompletableFuture<T> failedFuture(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
     }
 
     private void checkResponseCode(List<Integer> desiredCodes, Request request, Response response,
@@ -916,13 +1461,7 @@ public class HomeConnectApiClient {
 
         if (!desiredCodes.contains(HTTP_UNAUTHORIZED) && response.code() == HTTP_UNAUTHORIZED) {
             logger.debug("Current access token is invalid.");
-            String responseBody = "";
-            try {
-                responseBody = mapToString(response.body());
-            } catch (IOException e) {
-                logger.error("Could not get HTTP response body as string.", e);
-            }
-            trackAndLogApiRequest(haId, request, requestPayload, response, responseBody);
+            trackAndLogApiRequest(haId, request, requestPayload, response, readErrorBody(response));
             throw new AuthorizationException("Token invalid!");
         }
 
@@ -931,13 +1470,9 @@ public class HomeConnectApiClient {
             String message = response.message();
 
             logger.debug("Invalid HTTP response code {} (allowed: {})", code, desiredCodes);
-            String responseBody = "";
-            try {
-                responseBody = mapToString(response.body());
-            } catch (IOException e) {
-                logger.error("Could not get HTTP response body as string.", e);
-            }
-            trackAndLogApiRequest(haId, request, requestPayload, response, responseBody);
+            Buffer errorBody = readErrorBody(response);
+            String responseBody = errorBody.clone().readUtf8();
+            trackAndLogApiRequest(haId, request, requestPayload, response, errorBody);
 
             if (code == HTTP_CONFLICT && containsIgnoreCase(responseBody, "error")
                     && containsIgnoreCase(responseBody, "offline")) {
@@ -955,142 +1490,174 @@ public class HomeConnectApiClient {
         }
     }
 
-    private String mapToString(@Nullable ResponseBody responseBody) throws IOException {
-        if (responseBody != null) {
-            return responseBody.string();
+    private Buffer readErrorBody(Response response) {
+        try {
+            return readBody(response.body());
+        } catch (IOException e) {
+            logger.error("Could not get HTTP response body as string.", e);
         }
-        return "";
+        return new Buffer();
     }
 
-    private Program mapToProgram(String json) {
-        ArrayList<Option> optionList = new ArrayList<>();
-        JsonObject responseObject = jsonParser.parse(json).getAsJsonObject();
-        JsonObject data = responseObject.getAsJsonObject("data");
-        Program result = new Program(data.get("key").getAsString(), optionList);
-        JsonArray options = data.getAsJsonArray("options");
-
-        options.forEach(option -> {
-            JsonObject obj = (JsonObject) option;
-
-            @Nullable
-            String key = obj.get("key") != null ? obj.get("key").getAsString() : null;
-            @Nullable
-            String value = obj.get("value") != null && !obj.get("value").isJsonNull() ? obj.get("value").getAsString()
-                    : null;
-            @Nullable
-            String unit = obj.get("unit") != null ? obj.get("unit").getAsString() : null;
-
-            optionList.add(new Option(key, value, unit));
-        });
-
-        return result;
+    /**
+     * Buffer the response body, failing if it exceeds {@link #MAX_RESPONSE_BODY_SIZE}.
+     */
+    private Buffer readBody(@Nullable ResponseBody responseBody) throws IOException {
+        Buffer buffer = new Buffer();
+        if (responseBody == null) {
+            return buffer;
+        }
+        if (responseBody.contentLength() > MAX_RESPONSE_BODY_SIZE) {
+            throw new IOException("Response body exceeds " + MAX_RESPONSE_BODY_SIZE + " bytes: "
+                    + responseBody.contentLength());
+        }
+        BufferedSource source = responseBody.source();
+        while (source.read(buffer, RESPONSE_BODY_SEGMENT_SIZE) != -1) {
+            if (buffer.size() > MAX_RESPONSE_BODY_SIZE) {
+                throw new IOException("Response body exceeds " + MAX_RESPONSE_BODY_SIZE + " bytes");
+            }
+        }
+        return buffer;
     }
 
-    private List<AvailableProgram> mapToAvailablePrograms(String json, String haId) {
-        ArrayList<AvailableProgram> result = new ArrayList<>();
-
+    /**
+     * Decode the available programs. Decoding errors are thrown instead of returning no programs, so they are
+     * not stored in the {@link ResponseCache}.
+     */
+    private List<AvailableProgram> mapToAvailablePrograms(Response response, BufferedSource json)
+            throws CommunicationException, IOException {
         try {
-            JsonObject responseObject = jsonParser.parse(json).getAsJsonObject();
-
-            JsonArray programs = responseObject.getAsJsonObject("data").getAsJsonArray("programs");
-            programs.forEach(program -> {
-                JsonObject obj = (JsonObject) program;
-                @Nullable
-                String key = obj.get("key") != null ? obj.get("key").getAsString() : null;
-                JsonObject constraints = obj.getAsJsonObject("constraints");
-                boolean available = constraints.get("available") != null && constraints.get("available").getAsBoolean();
-                @Nullable
-                String execution = constraints.get("execution") != null ? constraints.get("execution").getAsString()
-                        : null;
-
-                if (key != null && execution != null) {
-                    result.add(new AvailableProgram(key, available, execution));
-                }
-            });
-        } catch (Exception e) {
-            logger.error("Could not parse available programs response! haId={}, error={}", haId, e.getMessage());
+            return decodeAvailablePrograms(json);
+        } catch (RuntimeException e) {
+            logger.error("Could not parse available programs response! path={}, error={}",
+                    response.request().url().encodedPath(), e.getMessage());
+            throw new CommunicationException("Failed to decode available programs", e);
         }
-
-        return result;
     }
 
-    private List<AvailableProgramOption> mapToAvailableProgramOption(String json, String haId) {
-        ArrayList<AvailableProgramOption> result = new ArrayList<>();
-
+    /**
+     * Decode the options of a program. Decoding errors are thrown instead of returning no options, so they are
+     * neither cached as the options of the program, nor replace the stale options on a refresh.
+     */
+    private List<AvailableProgramOption> mapToAvailableProgramOptions(Response response, BufferedSource json)
+            throws CommunicationException, IOException {
         try {
-            JsonObject responseObject = jsonParser.parse(json).getAsJsonObject();
-
-            JsonArray options = responseObject.getAsJsonObject("data").getAsJsonArray("options");
-            options.forEach(option -> {
-                JsonObject obj = (JsonObject) option;
-                @Nullable
-                String key = obj.get("key") != null ? obj.get("key").getAsString() : null;
-                ArrayList<String> allowedValues = new ArrayList<>();
-                obj.getAsJsonObject("constraints").getAsJsonArray("allowedvalues")
-                        .forEach(value -> allowedValues.add(value.getAsString()));
-
-                if (key != null) {
-                    result.add(new AvailableProgramOption(key, allowedValues));
-                }
-            });
-        } catch (Exception e) {
-            logger.warn("Could not parse available program options response! haId={}, error={}", haId, e.getMessage());
+            return decodeAvailableProgramOptions(json);
+        } catch (RuntimeException e) {
+            logger.warn("Could not parse available program options response! path={}, error={}",
+                    response.request().url().encodedPath(), e.getMessage());
+            throw new CommunicationException("Failed to decode available program options", e);
         }
+    }
 
-        return result;
+    private Data mapToActiveProgramState(Resource resource, @Nullable Program program) {
+        return new Data(resource.getKey(), TypedValue.ofBoolean(program != null), "boolean");
     }
 
-    private HomeAppliance mapToHomeAppliance(String json) {
-        JsonObject responseObject = jsonParser.parse(json).getAsJsonObject();
+    private Data mapToSelectedProgramState(@Nullable Program program) {
+        if (program == null) {
+            throw new UnsupportedOperationException("No program selected");
+        }
+        return new Data(program.getKey(), TypedValue.ofString(program.getKey()), "String");
+    }
 
-        JsonObject data = responseObject.getAsJsonObject("data");
+    private String mapToPayload(Data data, int valueType) {
+        JsonObject innerObject = new JsonObject();
+        innerObject.addProperty("key", data.getName());
 
-        return new HomeAppliance(data.get("haId").getAsString(), data.get("name").getAsString(),
-                data.get("brand").getAsString(), data.get("vib").getAsString(), data.get("connected").getAsBoolean(),
-                data.get("type").getAsString(), data.get("enumber").getAsString());
-    }
+        if (data.getValue() != null) {
+            if (valueType == VALUE_TYPE_INT) {
+                innerObject.addProperty("value", data.getValueAsInt());
+            } else if (valueType == VALUE_TYPE_BOOLEAN) {
+                innerObject.addProperty("value", data.getValueAsBoolean());
+            } else {
+                innerObject.addProperty("value", data.getValue());
+            }
+        }
+
+        if (data.getUnit() != null) {
+            innerObject.addProperty("unit", data.getUnit());
+        }
 
-    private ArrayList<HomeAppliance> mapToHomeAppliances(String json) {
-        final ArrayList<HomeAppliance> result = new ArrayList<>();
-        JsonObject responseObject = jsonParser.parse(json).getAsJsonObject();
+        JsonObject dataObject = new JsonObject();
+        dataObject.add("data", innerObject);
+        return dataObject.toString();
+    }
 
-        JsonObject data = responseObject.getAsJsonObject("data");
-        JsonArray homeappliances = data.getAsJsonArray("homeappliances");
+    private String mapToPayload(Option option, boolean asInt) {
+        return mapToPayload(Collections.singletonMap(option, asInt));
+    }
 
-        homeappliances.forEach(appliance -> {
-            JsonObject obj = (JsonObject) appliance;
+    private String mapToPayload(Map<Option, Boolean> options) {
+        JsonArray optionsArray = new JsonArray();
+        options.forEach((option, asInt) -> {
+            JsonObject innerObject = new JsonObject();
+            innerObject.addProperty("key", option.getKey());
+
+            if (option.getValue() != null) {
+                if (asInt) {
+                    innerObject.addProperty("value", option.getValueAsInt());
+                } else {
+                    innerObject.addProperty("value", option.getValue());
+                }
+            }
 
-            result.add(new HomeAppliance(obj.get("haId").getAsString(), obj.get("name").getAsString(),
-                    obj.get("brand").getAsString(), obj.get("vib").getAsString(), obj.get("connected").getAsBoolean(),
-                    obj.get("type").getAsString(), obj.get("enumber").getAsString()));
+            if (option.getUnit() != null) {
+                innerObject.addProperty("unit", option.getUnit());
+            }
+            optionsArray.add(innerObject);
         });
 
-        return result;
-    }
+        JsonObject optionsObject = new JsonObject();
+        optionsObject.add("options", optionsArray);
 
-    private Data mapToState(String json) {
-        JsonObject responseObject = jsonParser.parse(json).getAsJsonObject();
+        JsonObject dataObject = new JsonObject();
+        dataObject.add("data", optionsObject);
+        return dataObject.toString();
+    }
 
-        JsonObject data = responseObject.getAsJsonObject("data");
+    /**
+     * Create requests without authorization, which is added once they are sent, so building the request of an
+     * asynchronous call never blocks the caller on a token refresh.
+     */
+    private Request createGetRequest(String path) {
+        return new Request.Builder().url(apiUrl + path).header(ACCEPT, BSH_JSON_V1).get().build();
+    }
 
-        @Nullable
-        String unit = data.get("unit") != null ? data.get("unit").getAsString() : null;
+    private Request createPutRequest(String path, String requestBodyPayload) {
+        RequestBody requestBody = RequestBody.create(BSH_JSON_V1_MEDIA_TYPE,
+                requestBodyPayload.getBytes(StandardCharsets.UTF_8));
 
-        return new Data(data.get("key").getAsString(), data.get("value").getAsString(), unit);
+        return new Request.Builder().url(apiUrl + path).header(CONTENT_TYPE, BSH_JSON_V1)
+                .header(ACCEPT, BSH_JSON_V1).put(requestBody).build();
     }
 
-    private Request createGetRequest(String path) throws HomeConnectException {
-        return requestBuilder(credential).url(apiUrl + path).header(ACCEPT, BSH_JSON_V1).get().build();
+    private Request createDeleteRequest(String path) {
+        return new Request.Builder().url(apiUrl + path).header(ACCEPT, BSH_JSON_V1).delete().build();
     }
 
     private void trackAndLogApiRequest(@Nullable String haId, Request request, @Nullable String requestBody,
-            @Nullable Response response, @Nullable String responseBody) {
-        HomeConnectRequest homeConnectRequest = map(request, requestBody);
-        @Nullable
-        HomeConnectResponse homeConnectResponse = response != null ? map(response, responseBody) : null;
+            @Nullable Response response, @Nullable Buffer responseBody) {
+        if (logger.isDebugEnabled()) {
+            @Nullable
+            HomeConnectResponse homeConnectResponse = response != null ? mapResponse(response.code(),
+                    response.headers(), responseBody != null ? responseBody.clone().readUtf8() : null) : null;
 
-        logApiRequest(haId, homeConnectRequest, homeConnectResponse);
-        trackApiRequest(homeConnectRequest, homeConnectResponse);
+            logApiRequest(haId, mapRequest(request, requestBody), homeConnectResponse);
+        }
+        trackApiRequest(request, requestBody, response, responseBody);
+
+        ApiRequestLog requestLog = this.requestLog;
+        if (requestLog != null) {
+            if (response != null) {
+                requestLog.append(response.sentRequestAtMillis(), request.method(), request.url().encodedPath(),
+                        response.code(), response.receivedResponseAtMillis() - response.sentRequestAtMillis(),
+                        responseBody);
+            } else {
+                requestLog.append(System.currentTimeMillis(), request.method(), request.url().encodedPath(), 0, 0,
+                        null);
+            }
+        }
     }
 
     private void logApiRequest(@Nullable String haId, HomeConnectRequest homeConnectRequest,
@@ -1127,25 +1694,140 @@ public class HomeConnectApiClient {
         }
     }
 
-    private void trackApiRequest(HomeConnectRequest homeConnectRequest,
-            @Nullable HomeConnectResponse homeConnectResponse) {
-        communicationQueue.add(new ApiRequest(ZonedDateTime.now(), homeConnectRequest, homeConnectResponse));
+    void trackApiRequest(Request request, @Nullable String requestBody, @Nullable Response response,
+            @Nullable Buffer responseBody) {
+        switch (trackingMode) {
+        case OFF:
+            return;
+        case SAMPLED:
+            boolean failed = response == null || response.code() >= HTTP_BAD_REQUEST;
+            if (!failed && trackingCounter.getAndIncrement() % trackingSampleRate != 0) {
+                return;
+            }
+            break;
+        default:
+            break;
+        }
+        if (response != null) {
+            communicationHistory.add(new ApiRequestRecord(request, requestBody, response.code(), response.headers(),
+                    responseBody != null ? responseBody.clone() : null));
+        } else {
+            communicationHistory.add(new ApiRequestRecord(request, requestBody, 0, null, null));
+        }
+    }
+
+    /**
+     * Which API requests are kept for {@link HomeConnectApiClient#getLatestApiRequests()}.
+     */
+    public static enum TrackingMode {
+        /** No requests are tracked */
+        OFF,
+        /** Every n-th successful and all failed requests are tracked */
+        SAMPLED,
+        /** All requests are tracked */
+        FULL;
+    }
+
+    @FunctionalInterface
+    private interface ResponseMapper<T> {
+        T map(Response response, BufferedSource responseBody) throws HomeConnectException, IOException;
     }
 
-    private HomeConnectRequest map(Request request, @Nullable String requestBody) {
-        HashMap<String, String> headers = new HashMap<>();
-        request.headers().toMultimap().forEach((key, values) -> headers.put(key, values.toString()));
+    /**
+     * Maps full responses with the mapper of the call site and caches the result, while responses with
+     * {@code 304 Not Modified} reuse the cached result of the revalidated entry.
+     */
+    private class CachingMapper<T> implements ResponseMapper<T> {
+
+        private final String url;
+        private final @Nullable String haId;
+        private final ResponseCache.@Nullable Entry entry;
+        private final ResponseMapper<T> mapper;
+
+        private CachingMapper(String url, @Nullable String haId, ResponseCache.@Nullable Entry entry,
+                ResponseMapper<T> mapper) {
+            this.url = url;
+            this.haId = haId;
+            this.entry = entry;
+            this.mapper = mapper;
+        }
 
-        return new HomeConnectRequest(request.url().toString(), request.method(), headers,
-                requestBody != null ? formatJsonBody(requestBody) : null);
+        @Override
+        @SuppressWarnings("unchecked")
+        public T map(Response response, BufferedSource responseBody) throws HomeConnectException, IOException {
+            ResponseCache.Entry entry = this.entry;
+            if (response.code() == HTTP_NOT_MODIFIED) {
+                if (entry == null) {
+                    throw new CommunicationException(response.code(), response.message(), "");
+                }
+                responseCache.refresh(url, entry, response);
+                return (T) entry.getValue();
+            }
+            T value = mapper.map(response, responseBody);
+            responseCache.put(url, haId, response, value);
+            return value;
+        }
     }
 
-    private HomeConnectResponse map(Response response, @Nullable String responseBody) {
-        HashMap<String, String> headers = new HashMap<>();
-        response.headers().toMultimap().forEach((key, values) -> headers.put(key, values.toString()));
 
-        return new HomeConnectResponse(response.code(), headers,
-                responseBody != null ? formatJsonBody(responseBody) : null);
+    /**
+     * Key of the program options cache. Options depend on the appliance model, so they are never shared
+     * between appliances, even if their programs have the same key.
+     */
+    private static class ProgramOptionsKey {
+
+        private final String haId;
+        private final String programKey;
+
+        private ProgramOptionsKey(String haId, String programKey) {
+            this.haId = haId;
+            this.programKey = programKey;
+        }
+
+        @Override
+        public boolean equals(@Nullable Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ProgramOptionsKey)) {
+                return false;
+            }
+            ProgramOptionsKey other = (ProgramOptionsKey) obj;
+            return haId.equals(other.haId) && programKey.equals(other.programKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * haId.hashCode() + programKey.hashCode();
+        }
     }
 
+    /**
+     * Loads program options on a cache miss and refreshes them without blocking the reader of the stale options.
+     * If a refresh fails, the stale options are kept until they expire.
+     */
+    private class ProgramOptionsLoader extends CacheLoader<ProgramOptionsKey, List<AvailableProgramOption>> {
+
+        @Override
+        public List<AvailableProgramOption> load(ProgramOptionsKey key) throws HomeConnectException {
+            return loadProgramOptions(key);
+        }
+
+        @Override
+        public ListenableFuture<List<AvailableProgramOption>> reload(ProgramOptionsKey key,
+                List<AvailableProgramOption> oldValue) {
+            SettableFuture<List<AvailableProgramOption>> future = SettableFuture.create();
+            loadProgramOptionsAsync(key).whenComplete((options, error) -> {
+                if (error != null) {
+                    logger.debug("Failed to refresh options of '{}' of '{}': {}", key.programKey, key.haId,
+                            error.getMessage());
+                    future.setException(error);
+                } else {
+                    programOptionsLoaded.put(key, System.currentTimeMillis());
+                    future.set(options);
+                }
+            });
+            return future;
+        }
+    }
 }
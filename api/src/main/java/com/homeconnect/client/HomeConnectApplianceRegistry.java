@@ -0,0 +1,263 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.homeconnect.client.exception.HomeConnectException;
+import com.homeconnect.client.listener.HomeConnectEventListener;
+import com.homeconnect.client.model.Event;
+import com.homeconnect.client.model.EventType;
+import com.homeconnect.client.model.HomeAppliance;
+
+/**
+ * Registry of the home appliances of an account, loaded once and kept up to date by the event stream.
+ *
+ * Connection changes, pairings and depairings received by the event stream update the registry, so the
+ * metadata and connection state of an appliance can be looked up without a request. Lookups read an
+ * immutable snapshot, that is replaced on each change, and never block.
+ */
+@NonNullByDefault
+public class HomeConnectApplianceRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(HomeConnectApplianceRegistry.class);
+
+    private final HomeConnectApiClient client;
+
+    private volatile Map<String, HomeAppliance> appliances = Collections.emptyMap();
+    private volatile boolean loaded = false;
+
+    HomeConnectApplianceRegistry(HomeConnectApiClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Create a listener, to be registered at the {@link HomeConnectEventSourceClient}, that keeps the registry
+     * up to date and forwards all notifications to another listener.
+     *
+     * @param haId home appliance id
+     * @param listener listener to forward notifications to
+     * @return event listener feeding this registry
+     */
+    public HomeConnectEventListener createListener(String haId, @Nullable HomeConnectEventListener listener) {
+        return new HomeConnectEventListener() {
+
+            @Override
+            public void onEvent(Event event) {
+                update(event);
+                if (listener != null) {
+                    listener.onEvent(event);
+                }
+            }
+
+            @Override
+            public void onClosed() {
+                if (listener != null) {
+                    listener.onClosed();
+                }
+            }
+
+            @Override
+            public void onRateLimitReached() {
+                if (listener != null) {
+                    listener.onRateLimitReached();
+                }
+            }
+
+            @Override
+            public void onReconnecting(int attempt, long delay) {
+                if (listener != null) {
+                    listener.onReconnecting(attempt, delay);
+                }
+            }
+
+            @Override
+            public void onReconnected(long gap) {
+                // Connection changes may have been missed, while the stream was down
+                if (loaded) {
+                    refreshAsync();
+                }
+                if (listener != null) {
+                    listener.onReconnected(gap);
+                }
+            }
+        };
+    }
+
+    /**
+     * Load the home appliances of the account, unless already loaded.
+     *
+     * @throws HomeConnectException Exception in HomeConnect interface
+     */
+    public void load() throws HomeConnectException {
+        if (!loaded) {
+            replace(client.getHomeAppliances());
+        }
+    }
+
+    /**
+     * Reload the home appliances of the account.
+     *
+     * @throws HomeConnectException Exception in HomeConnect interface
+     */
+    public void refresh() throws HomeConnectException {
+        replace(client.getHomeAppliances());
+    }
+
+    /**
+     * Reload the home appliances of the account asynchronously.
+     *
+     * @return future completed once the registry was reloaded
+     */
+    public CompletableFuture<Void> refreshAsync() {
+        return client.getHomeAppliancesAsync().thenAccept(this::replace).whenComplete((result, error) -> {
+            if (error != null) {
+                logger.warn("Failed to refresh home appliances: {}", error.getMessage());
+            }
+        });
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Get the metadata and connection state of an appliance.
+     *
+     * @param haId home appliance id
+     * @return {@link HomeAppliance} or null if unknown
+     */
+    public @Nullable HomeAppliance get(String haId) {
+        return appliances.get(haId);
+    }
+
+    public Collection<HomeAppliance> getAll() {
+        return appliances.values();
+    }
+
+    /**
+     * Whether an appliance is known to be connected.
+     *
+     * @param haId home appliance id
+     * @return true if the appliance is registered and connected
+     */
+    public boolean isConnected(String haId) {
+        HomeAppliance appliance = appliances.get(haId);
+        return appliance != null && appliance.isConnected();
+    }
+
+    /**
+     * Whether an appliance is known to be disconnected, so requests to it can be skipped.
+     *
+     * @param haId home appliance id
+     * @return true if the appliance is registered and disconnected
+     */
+    public boolean isOffline(String haId) {
+        HomeAppliance appliance = appliances.get(haId);
+        return appliance != null && !appliance.isConnected();
+    }
+
+    /**
+     * Update the registry with a received event.
+     *
+     * @param event appliance event
+     */
+    public void update(Event event) {
+        if (!loaded) {
+            return;
+        }
+        String haId = event.getHaId();
+        switch (event.getType()) {
+        case CONNECTED:
+        case DISCONNECTED:
+            boolean connected = event.getType() == EventType.CONNECTED;
+            HomeAppliance appliance = appliances.get(haId);
+            if (appliance == null) {
+                fetch(haId);
+            } else if (appliance.isConnected() != connected) {
+                logger.debug("Appliance ({}) {}.", haId, connected ? "connected" : "disconnected");
+                put(new HomeAppliance(haId, appliance.getName(), appliance.getBrand(), appliance.getVib(),
+                        connected, appliance.getType(), appliance.getEnumber()));
+            }
+            break;
+        case PAIRED:
+            fetch(haId);
+            break;
+        case DEPAIRED:
+            logger.debug("Appliance ({}) depaired.", haId);
+            remove(haId);
+            client.invalidateProgramOptions(haId);
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Drop all appliances, e.g. once the event stream is closed and the registry would go stale.
+     */
+    public synchronized void clear() {
+        loaded = false;
+        appliances = Collections.emptyMap();
+    }
+
+    private void fetch(String haId) {
+        client.getHomeApplianceAsync(haId).whenComplete((appliance, error) -> {
+            if (error != null) {
+                logger.warn("Failed to fetch appliance ({}): {}", haId, error.getMessage());
+            } else if (loaded) {
+                put(appliance);
+            }
+        });
+    }
+
+    private synchronized void replace(List<HomeAppliance> homeAppliances) {
+        Map<String, HomeAppliance> appliances = new LinkedHashMap<>();
+        for (HomeAppliance appliance : homeAppliances) {
+            appliances.put(appliance.getHaId(), appliance);
+        }
+        this.appliances = Collections.unmodifiableMap(appliances);
+        this.loaded = true;
+    }
+
+    private synchronized void put(HomeAppliance appliance) {
+        Map<String, HomeAppliance> appliances = new LinkedHashMap<>(this.appliances);
+        appliances.put(appliance.getHaId(), appliance);
+        this.appliances = Collections.unmodifiableMap(appliances);
+    }
+
+    private synchronized void remove(String haId) {
+        if (appliances.containsKey(haId)) {
+            Map<String, HomeAppliance> appliances = new LinkedHashMap<>(this.appliances);
+            appliances.remove(haId);
+            this.appliances = Collections.unmodifiableMap(appliances);
+        }
+    }
+}
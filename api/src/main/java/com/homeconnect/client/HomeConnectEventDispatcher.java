@@ -0,0 +1,337 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.homeconnect.client.listener.HomeConnectEventListener;
+import com.homeconnect.client.model.Event;
+import com.homeconnect.client.model.EventLevel;
+
+/**
+ * Asynchronous dispatcher of events to {@link HomeConnectEventListener}s.
+ *
+ * Each subscriber gets a bounded queue, drained in order on an executor, so the thread reading the event stream
+ * never runs user code. If a subscriber falls behind, its {@link OverflowPolicy} decides which events are kept.
+ * Events of level {@link EventLevel#CRITICAL} and {@link EventLevel#ALERT} pass a priority lane, that is delivered
+ * first and never conflated. Connection notifications keep their position between the events, so no event is
+ * delivered ahead of a notification it was received after.
+ */
+@NonNullByDefault
+public class HomeConnectEventDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(HomeConnectEventDispatcher.class);
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    // bound of the time the event stream reader waits for a full BLOCK queue, far below the read timeout
+    private static final long DEFAULT_MAX_BLOCK_TIME = 5000; // in ms
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private static final ExecutorService defaultExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "homeconnect-events-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static enum OverflowPolicy {
+        /** Wait for the subscriber for a bounded time, then drop the oldest event */
+        BLOCK,
+        /** Drop the oldest event */
+        DROP_OLDEST,
+        /** Keep only the latest event per appliance and key */
+        CONFLATE;
+    }
+
+    private final Executor executor;
+    private final long maxBlockTime;
+
+    public HomeConnectEventDispatcher() {
+        this(defaultExecutor, DEFAULT_MAX_BLOCK_TIME, TimeUnit.MILLISECONDS);
+    }
+
+    public HomeConnectEventDispatcher(Executor executor, long maxBlockTime, TimeUnit unit) {
+        this.executor = executor;
+        this.maxBlockTime = unit.toMillis(maxBlockTime);
+    }
+
+    /**
+     * Wrap a listener in a subscription, that queues the events and delivers them asynchronously.
+     *
+     * @param listener listener to deliver the events to
+     * @param policy policy if the queue of the subscriber is full
+     * @param capacity maximum number of queued events
+     * @return subscription, to be registered in place of the listener
+     */
+    public Subscription subscribe(HomeConnectEventListener listener, OverflowPolicy policy, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        return new Subscription(listener, policy, capacity);
+    }
+
+    /**
+     * Queue of one subscriber. Enqueueing never calls the listener, all calls are made by the drain task.
+     */
+    public class Subscription implements HomeConnectEventListener {
+
+        private final HomeConnectEventListener listener;
+        private final OverflowPolicy policy;
+        private final int capacity;
+
+        private final Deque<Queued> priorityQueue = new ArrayDeque<>();
+        private final Deque<Queued> queue = new ArrayDeque<>();
+        private final Map<String, Queued> conflated = new LinkedHashMap<>();
+
+        // Connection notifications are barriers, only events received before them are delivered first
+        private final Deque<Signal> signals = new ArrayDeque<>();
+        private long sequence = 0;
+        private boolean draining = false;
+        private long dropped = 0;
+        private long conflatedCount = 0;
+
+        private Subscription(HomeConnectEventListener listener, OverflowPolicy policy, int capacity) {
+            this.listener = listener;
+            this.policy = policy;
+            this.capacity = capacity;
+        }
+
+        public HomeConnectEventListener getListener() {
+            return listener;
+        }
+
+        public OverflowPolicy getPolicy() {
+            return policy;
+        }
+
+        public synchronized int getQueueSize() {
+            return priorityQueue.size() + queue.size() + conflated.size();
+        }
+
+        public synchronized long getDroppedCount() {
+            return dropped;
+        }
+
+        public synchronized long getConflatedCount() {
+            return conflatedCount;
+        }
+
+        @Override
+        public void onEvent(Event event) {
+            synchronized (this) {
+                EventLevel level = event.getLevel();
+                if (level == EventLevel.CRITICAL || level == EventLevel.ALERT) {
+                    if (priorityQueue.size() >= capacity) {
+                        priorityQueue.pollFirst();
+                        dropped++;
+                    }
+                    priorityQueue.addLast(new Queued(sequence++, event));
+                } else {
+                    switch (policy) {
+                    case CONFLATE:
+                        String key = getConflationKey(event);
+                        if (conflated.remove(key) != null) {
+                            conflatedCount++;
+                        } else if (conflated.size() >= capacity) {
+                            Iterator<String> oldest = conflated.keySet().iterator();
+                            oldest.next();
+                            oldest.remove();
+                            dropped++;
+                        }
+                        // Re-insert at the end, so the order of the latest values is kept
+                        conflated.put(key, new Queued(sequence++, event));
+                        break;
+                    case BLOCK:
+                        awaitCapacity();
+                        // fall through
+                    default:
+                        if (queue.size() >= capacity) {
+                            queue.pollFirst();
+                            dropped++;
+                            logger.debug("Event queue of {} full, dropped oldest event", listener);
+                        }
+                        queue.addLast(new Queued(sequence++, event));
+                        break;
+                    }
+                }
+            }
+            schedule();
+        }
+
+        @Override
+        public void onClosed() {
+            signal(HomeConnectEventListener::onClosed);
+        }
+
+        @Override
+        public void onRateLimitReached() {
+            signal(HomeConnectEventListener::onRateLimitReached);
+        }
+
+        @Override
+        public void onReconnecting(int attempt, long delay) {
+            signal(listener -> listener.onReconnecting(attempt, delay));
+        }
+
+        @Override
+        public void onReconnected(long gap) {
+            signal(listener -> listener.onReconnected(gap));
+        }
+
+        /**
+         * Queue a connection notification, delivered after the events received before and before the events
+         * received after it.
+         */
+        private void signal(Consumer<HomeConnectEventListener> signal) {
+            synchronized (this) {
+                signals.addLast(new Signal(sequence++, signal));
+            }
+            schedule();
+        }
+
+        private void awaitCapacity() {
+            long deadline = System.currentTimeMillis() + maxBlockTime;
+            try {
+                while (queue.size() >= capacity) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        logger.warn("Event listener {} blocked the event stream for {}ms, dropping events", listener,
+                                maxBlockTime);
+                        return;
+                    }
+                    wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void schedule() {
+            synchronized (this) {
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+            try {
+                executor.execute(this::drain);
+            } catch (RuntimeException e) {
+                logger.warn("Unable to dispatch events to {}: {}", listener, e.getMessage());
+                synchronized (this) {
+                    draining = false;
+                }
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                Event event;
+                Consumer<HomeConnectEventListener> signal = null;
+                synchronized (this) {
+                    Signal next = signals.peekFirst();
+                    event = poll(next != null ? next.sequence : Long.MAX_VALUE);
+                    if (event == null) {
+                        if (next == null) {
+                            draining = false;
+                            return;
+                        }
+                        signal = signals.pollFirst().signal;
+                    }
+                    notifyAll();
+                }
+                try {
+                    if (event != null) {
+                        listener.onEvent(event);
+                    } else if (signal != null) {
+                        signal.accept(listener);
+                    }
+                } catch (Exception e) {
+                    logger.error("Could not publish event to listener!", e);
+                }
+            }
+        }
+
+        /**
+         * Poll the next event received before the barrier, preferring the priority lane.
+         */
+        private @Nullable Event poll(long barrier) {
+            Queued queued = priorityQueue.peekFirst();
+            if (queued != null && queued.sequence < barrier) {
+                return priorityQueue.pollFirst().event;
+            }
+            queued = queue.peekFirst();
+            if (queued != null && queued.sequence < barrier) {
+                return queue.pollFirst().event;
+            }
+            Iterator<Queued> iterator = conflated.values().iterator();
+            if (iterator.hasNext()) {
+                queued = iterator.next();
+                if (queued.sequence < barrier) {
+                    iterator.remove();
+                    return queued.event;
+                }
+            }
+            return null;
+        }
+
+        private String getConflationKey(Event event) {
+            String key = event.getKey();
+            return event.getHaId() + '/' + (key != null ? key : event.getType().name());
+        }
+    }
+
+    private static class Queued {
+
+        private final long sequence;
+        private final Event event;
+
+        private Queued(long sequence, Event event) {
+            this.sequence = sequence;
+            this.event = event;
+        }
+    }
+
+    private static class Signal {
+
+        private final long sequence;
+        private final Consumer<HomeConnectEventListener> signal;
+
+        private Signal(long sequence, Consumer<HomeConnectEventListener> signal) {
+            this.sequence = sequence;
+            this.signal = signal;
+        }
+    }
+}
@@ -12,16 +12,20 @@
  */
 package com.homeconnect.client;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
-import org.apache.commons.collections4.QueueUtils;
-import org.apache.commons.collections4.queue.CircularFifoQueue;
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.slf4j.Logger;
@@ -29,9 +33,13 @@ import org.slf4j.LoggerFactory;
 
 import com.google.api.client.auth.oauth2.Credential;
 import com.homeconnect.auth.OAuthAuthorization;
+import com.homeconnect.client.HomeConnectEventDispatcher.OverflowPolicy;
+import com.homeconnect.client.HomeConnectEventDispatcher.Subscription;
 import com.homeconnect.client.exception.AuthorizationException;
+import com.homeconnect.client.history.EventHistory;
 import com.homeconnect.client.listener.HomeConnectEventListener;
 import com.homeconnect.client.model.Event;
+import com.homeconnect.client.model.EventType;
 
 import okhttp3.Request;
 import okhttp3.sse.EventSource;
@@ -47,18 +55,33 @@ import okhttp3.sse.EventSources;
 public class HomeConnectEventSourceClient {
 
     private static final String TEXT_EVENT_STREAM = "text/event-stream";
-    private static final int SSE_REQUEST_READ_TIMEOUT = 90;
     private static final String ACCEPT = "Accept";
-    private static final int EVENT_QUEUE_SIZE = 150;
+
+    private static final int DEFAULT_MAX_RECONNECT_ATTEMPTS = 10;
+    private static final long RECONNECT_DELAY_MIN = 1000; // in ms
+    private static final long RECONNECT_DELAY_MAX = 300000; // in ms
+    private static final long RATE_LIMIT_DELAY = 60000; // in ms
+
+    public static enum StreamMode {
+        /** One event stream per home appliance */
+        APPLIANCE,
+        /** One aggregate event stream of all home appliances of the account */
+        ACCOUNT;
+    }
 
     private final Logger logger;
     private final String apiUrl;
     private final Credential credential;
 
     private final ScheduledExecutorService scheduler;
-    private final Queue<Event> eventQueue;
+    private final HomeConnectEventDispatcher dispatcher;
+    private final EventHistory history;
     private final EventSource.Factory eventSourceFactory;
-    private final Map<HomeConnectEventListener, EventSource> eventSourceConnections;
+    private final Map<HomeConnectEventListener, Connection> eventSourceConnections;
+
+    private StreamMode streamMode = StreamMode.APPLIANCE;
+    private @Nullable AccountStream accountStream;
+    private int maxReconnectAttempts = DEFAULT_MAX_RECONNECT_ATTEMPTS;
 
     public HomeConnectEventSourceClient(String apiUrl, String username,
             ScheduledExecutorService scheduler) throws AuthorizationException {
@@ -67,45 +90,122 @@ public class HomeConnectEventSourceClient {
 
     public HomeConnectEventSourceClient(String apiUrl, Credential credential,
             ScheduledExecutorService scheduler, @Nullable List<Event> eventHistory) {
+        this(HomeConnectTransport.getInstance(apiUrl), credential, scheduler, eventHistory);
+    }
+
+    public HomeConnectEventSourceClient(HomeConnectTransport transport, Credential credential,
+            ScheduledExecutorService scheduler, @Nullable List<Event> eventHistory) {
         
-        this.apiUrl = apiUrl;
+        this.apiUrl = transport.getApiUrl();
         this.credential = credential;
         this.scheduler = scheduler;
+        this.dispatcher = new HomeConnectEventDispatcher();
         
-        eventSourceFactory = EventSources.createFactory(OkHttpHelper.builder(false)
-                .readTimeout(SSE_REQUEST_READ_TIMEOUT, TimeUnit.SECONDS).retryOnConnectionFailure(true).build());
+        eventSourceFactory = EventSources.createFactory(transport.getEventSourceClient());
         eventSourceConnections = new HashMap<>();
-        eventQueue = QueueUtils.synchronizedQueue(new CircularFifoQueue<>(EVENT_QUEUE_SIZE));
+        history = new EventHistory();
         
         if (eventHistory != null) {
-            eventQueue.addAll(eventHistory);
+            history.addAll(eventHistory);
         }
         logger = LoggerFactory.getLogger(HomeConnectEventSourceClient.class);
     }
 
+    public synchronized StreamMode getStreamMode() {
+        return streamMode;
+    }
+
+    /**
+     * Select whether events are received by one stream per home appliance or by one aggregate stream of the account,
+     * that is demultiplexed to the listeners by the appliance id. The aggregate stream uses only one of the limited
+     * event monitoring channels, however many appliances are listened to.
+     *
+     * @param streamMode event stream mode
+     * @throws IllegalStateException if event listeners are registered
+     */
+    public synchronized void setStreamMode(StreamMode streamMode) {
+        if (streamMode != this.streamMode && connectionSize() > 0) {
+            throw new IllegalStateException("Unable to change stream mode of registered event listeners");
+        }
+        this.streamMode = streamMode;
+    }
+
+    public synchronized int getMaxReconnectAttempts() {
+        return maxReconnectAttempts;
+    }
+
+    /**
+     * Set how often a lost event stream is reopened in succession, before its listeners are informed that it closed.
+     *
+     * @param maxReconnectAttempts maximum number of attempts, 0 to disable reconnecting
+     */
+    public synchronized void setMaxReconnectAttempts(int maxReconnectAttempts) {
+        if (maxReconnectAttempts < 0) {
+            throw new IllegalArgumentException("Invalid number of reconnect attempts: " + maxReconnectAttempts);
+        }
+        this.maxReconnectAttempts = maxReconnectAttempts;
+    }
+
     /**
      * Register {@link HomeConnectEventListener} to receive events by Home Conncet API. This helps to reduce the
      * amount of request you would usually need to update all channels.
      *
      * Checkout rate limits of the API at. https://developer.home-connect.com/docs/general/ratelimiting
      *
+     * Events are delivered asynchronously. If the listener falls behind, the event stream of the appliance is
+     * blocked for a bounded time. The aggregate stream of the {@link StreamMode#ACCOUNT} mode is shared by all
+     * appliances, so the oldest queued events are dropped instead.
+     *
      * @param eventListener appliance event listener
      * @param haId HomaAppliance identification
      * @throws Exception Exception
      */
     public synchronized void registerEventListener(final String haId, final HomeConnectEventListener eventListener)
             throws Exception {
-        logger.debug("Register event listener for '{}': {}", haId, eventListener);
+        registerEventListener(haId, eventListener,
+                streamMode == StreamMode.ACCOUNT ? OverflowPolicy.DROP_OLDEST : OverflowPolicy.BLOCK,
+                HomeConnectEventDispatcher.DEFAULT_CAPACITY);
+    }
 
-        if (!eventSourceConnections.containsKey(eventListener)) {
-            Request request = OkHttpHelper.requestBuilder(credential)
-                    .url(apiUrl + "/api/homeappliances/" + haId + "/events").header(ACCEPT, TEXT_EVENT_STREAM).build();
+    /**
+     * Register {@link HomeConnectEventListener} to receive events by Home Conncet API, queued in a bounded queue.
+     *
+     * @param haId HomaAppliance identification
+     * @param eventListener appliance event listener
+     * @param policy policy if the listener falls behind and its queue is full. {@link OverflowPolicy#BLOCK} is
+     *            rejected in the {@link StreamMode#ACCOUNT} mode, as one slow listener would block the events of all
+     *            appliances of the account.
+     * @param capacity maximum number of queued events
+     * @throws IllegalArgumentException if the policy blocks the shared event stream of the account
+     * @throws Exception Exception
+     */
+    public synchronized void registerEventListener(final String haId, final HomeConnectEventListener eventListener,
+            OverflowPolicy policy, int capacity) throws Exception {
+        if (streamMode == StreamMode.ACCOUNT && policy == OverflowPolicy.BLOCK) {
+            throw new IllegalArgumentException("Blocking overflow policy not supported by the account event stream");
+        }
+        logger.debug("Register event listener for '{}': {}", haId, eventListener);
 
+        if (streamMode == StreamMode.ACCOUNT) {
+            AccountStream accountStream = this.accountStream;
+            if (accountStream == null) {
+                logger.debug("Create new event source listener for account.");
+                accountStream = new AccountStream();
+                Connection connection = new Connection(null, accountStream, accountStream);
+                connection.open();
+                accountStream.connection = connection;
+                this.accountStream = accountStream;
+            }
+            if (!accountStream.contains(eventListener)) {
+                accountStream.add(haId, dispatcher.subscribe(eventListener, policy, capacity));
+            }
+        } else if (!eventSourceConnections.containsKey(eventListener)) {
             logger.debug("Create new event source listener for '{}'.", haId);
-            EventSource eventSource = eventSourceFactory.newEventSource(request,
-                    new HomeConnectEventSourceListener(haId, eventListener, this, scheduler, eventQueue));
+            Subscription subscription = dispatcher.subscribe(eventListener, policy, capacity);
+            Connection connection = new Connection(haId, eventListener, subscription);
+            connection.open();
 
-            eventSourceConnections.put(eventListener, eventSource);
+            eventSourceConnections.put(eventListener, connection);
         }
     }
 
@@ -115,9 +215,20 @@ public class HomeConnectEventSourceClient {
      * @param eventListener appliance event listener
      */
     public synchronized void unregisterEventListener(HomeConnectEventListener eventListener) {
-        if (eventSourceConnections.containsKey(eventListener)) {
-            eventSourceConnections.get(eventListener).cancel();
-            eventSourceConnections.remove(eventListener);
+        if (eventListener instanceof Subscription) {
+            eventListener = ((Subscription) eventListener).getListener();
+        }
+        AccountStream accountStream = this.accountStream;
+        if (accountStream != null && accountStream.remove(eventListener)) {
+            if (accountStream.isEmpty()) {
+                this.accountStream = null;
+                accountStream.close();
+            }
+            return;
+        }
+        Connection connection = eventSourceConnections.remove(eventListener);
+        if (connection != null) {
+            connection.close();
         }
     }
 
@@ -127,33 +238,300 @@ public class HomeConnectEventSourceClient {
      * @return connection count
      */
     public synchronized int connectionSize() {
-        return eventSourceConnections.size();
+        return eventSourceConnections.size() + (accountStream != null ? 1 : 0);
     }
 
     /**
      * Dispose event source client
      */
     public synchronized void dispose() {
-        eventSourceConnections.forEach((key, value) -> value.cancel());
+        eventSourceConnections.forEach((key, value) -> value.close());
         eventSourceConnections.clear();
+
+        AccountStream accountStream = this.accountStream;
+        if (accountStream != null) {
+            this.accountStream = null;
+            accountStream.close();
+        }
+    }
+
+    /**
+     * Get the history of received events, e.g. to configure its capacity per appliance
+     *
+     * @return event history
+     */
+    public EventHistory getEventHistory() {
+        return history;
     }
 
     /**
      * Get latest events
      *
-     * @return thread safe queue
+     * @return copy of the latest events of all appliances
      */
     public Queue<Event> getLatestEvents() {
-        return eventQueue;
+        return new ArrayDeque<>(history.getEvents());
     }
 
     /**
      * Get latest events by haId
      *
      * @param haId appliance id
-     * @return thread safe queue
+     * @return copy of the latest events of the appliance
      */
     public List<Event> getLatestEvents(String haId) {
-        return eventQueue.stream().filter(event -> haId.equals(event.getHaId())).collect(Collectors.toList());
+        return history.getEvents(haId);
+    }
+
+    /**
+     * Get latest event of a key by haId
+     *
+     * @param haId appliance id
+     * @param key event key
+     * @return latest event or null if none was received
+     */
+    public @Nullable Event getLatestEvent(String haId, String key) {
+        return history.getLatestEvent(haId, key);
+    }
+
+    /**
+     * Inform the connection of an event stream, that it was opened.
+     */
+    synchronized void onConnected(HomeConnectEventSourceListener source) {
+        Connection connection = getConnection(source);
+        if (connection != null && connection.attempts > 0) {
+            long gap = System.currentTimeMillis() - connection.lostAt;
+            logger.info("Event stream reconnected after {} attempts ({}). Gap: {}ms", connection.attempts,
+                    connection.getName(), gap);
+            connection.attempts = 0;
+            connection.lostAt = 0;
+            connection.listener.onReconnected(gap);
+        }
+    }
+
+    /**
+     * Schedule the reconnection of a lost event stream with a jittered exponential backoff.
+     *
+     * @param source listener of the lost event stream
+     * @param rateLimited true if the stream was rejected due to the limit of event monitoring channels
+     * @param retryAfter delay requested by the API in s, or 0 if none
+     * @return false if the stream will not be reopened and was unregistered
+     */
+    synchronized boolean reconnect(HomeConnectEventSourceListener source, boolean rateLimited, long retryAfter) {
+        Connection connection = getConnection(source);
+        if (connection == null) {
+            return false;
+        }
+        return scheduleReconnect(connection, rateLimited, retryAfter);
+    }
+
+    private boolean scheduleReconnect(Connection connection, boolean rateLimited, long retryAfter) {
+        if (connection.attempts >= maxReconnectAttempts) {
+            logger.warn("Giving up reconnecting event stream after {} attempts ({}).", connection.attempts,
+                    connection.getName());
+            remove(connection);
+            return false;
+        }
+        if (connection.attempts == 0) {
+            connection.lostAt = System.currentTimeMillis();
+        }
+        connection.attempts++;
+
+        long delay = Math.min(RECONNECT_DELAY_MAX, RECONNECT_DELAY_MIN << Math.min(connection.attempts - 1, 16));
+        delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        if (rateLimited) {
+            delay = Math.max(delay, retryAfter > 0 ? TimeUnit.SECONDS.toMillis(retryAfter) : RATE_LIMIT_DELAY);
+        }
+        logger.debug("Reconnecting event stream in {}ms, attempt {} ({}).", delay, connection.attempts,
+                connection.getName());
+
+        connection.listener.onReconnecting(connection.attempts, delay);
+        connection.reconnect = scheduler.schedule(() -> reopen(connection), delay, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private synchronized void reopen(Connection connection) {
+        if (connection.closed) {
+            return;
+        }
+        try {
+            connection.open();
+
+        } catch (Exception e) {
+            logger.warn("Failed to reopen event stream ({}): {}", connection.getName(), e.getMessage());
+            if (!scheduleReconnect(connection, false, 0)) {
+                connection.listener.onClosed();
+            }
+        }
+    }
+
+    private void remove(Connection connection) {
+        connection.close();
+        if (accountStream != null && accountStream.connection == connection) {
+            accountStream = null;
+        } else {
+            eventSourceConnections.remove(connection.key, connection);
+        }
+    }
+
+    private @Nullable Connection getConnection(HomeConnectEventSourceListener source) {
+        AccountStream accountStream = this.accountStream;
+        if (accountStream != null && accountStream.connection != null && accountStream.connection.source == source) {
+            return accountStream.connection;
+        }
+        for (Connection connection : eventSourceConnections.values()) {
+            if (connection.source == source) {
+                return connection;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Event stream of one appliance or of the account, reopened if lost.
+     */
+    private class Connection {
+
+        private final @Nullable String haId;
+        private final HomeConnectEventListener key;
+        private final HomeConnectEventListener listener;
+
+        private @Nullable HomeConnectEventSourceListener source;
+        private @Nullable EventSource eventSource;
+        private @Nullable ScheduledFuture<?> reconnect;
+        private int attempts = 0;
+        private long lostAt = 0;
+        private boolean closed = false;
+
+        private Connection(@Nullable String haId, HomeConnectEventListener key, HomeConnectEventListener listener) {
+            this.haId = haId;
+            this.key = key;
+            this.listener = listener;
+        }
+
+        private String getName() {
+            String haId = this.haId;
+            return haId != null ? haId : "account";
+        }
+
+        private void open() throws Exception {
+            String path = haId != null ? "/api/homeappliances/" + haId + "/events" : "/api/homeappliances/events";
+            // No Last-Event-ID is sent, as the event id of the API is the appliance id and no position to resume
+            Request.Builder request = OkHttpHelper.requestBuilder(credential).url(apiUrl + path)
+                    .header(ACCEPT, TEXT_EVENT_STREAM);
+
+            HomeConnectEventSourceListener source = new HomeConnectEventSourceListener(haId, listener,
+                    HomeConnectEventSourceClient.this, scheduler, history);
+            this.source = source;
+            this.eventSource = eventSourceFactory.newEventSource(request.build(), source);
+        }
+
+        private void close() {
+            closed = true;
+            ScheduledFuture<?> reconnect = this.reconnect;
+            if (reconnect != null) {
+                reconnect.cancel(false);
+            }
+            EventSource eventSource = this.eventSource;
+            if (eventSource != null) {
+                eventSource.cancel();
+            }
+        }
+    }
+
+    /**
+     * Aggregate event stream of the account, routing the events to the listeners of their appliance.
+     * Routes are only changed while holding the lock of the client, the stream reader accesses them lock free.
+     */
+    private static class AccountStream implements HomeConnectEventListener {
+
+        private final Map<String, List<Subscription>> routes = new ConcurrentHashMap<>();
+        private final Map<HomeConnectEventListener, String> appliances = new HashMap<>();
+
+        private @Nullable Connection connection;
+
+        private boolean contains(HomeConnectEventListener eventListener) {
+            return appliances.containsKey(eventListener);
+        }
+
+        private boolean isEmpty() {
+            return appliances.isEmpty();
+        }
+
+        private void add(String haId, Subscription subscription) {
+            appliances.put(subscription.getListener(), haId);
+            routes.computeIfAbsent(haId, id -> new CopyOnWriteArrayList<>()).add(subscription);
+        }
+
+        private boolean remove(HomeConnectEventListener eventListener) {
+            String haId = appliances.remove(eventListener);
+            if (haId == null) {
+                return false;
+            }
+            List<Subscription> subscriptions = routes.get(haId);
+            if (subscriptions != null) {
+                for (Subscription subscription : subscriptions) {
+                    if (subscription.getListener() == eventListener) {
+                        subscriptions.remove(subscription);
+                        // Inform the listener, as if its own event stream was closed
+                        subscription.onClosed();
+                    }
+                }
+                if (subscriptions.isEmpty()) {
+                    routes.remove(haId);
+                }
+            }
+            return true;
+        }
+
+        private void close() {
+            Connection connection = this.connection;
+            if (connection != null) {
+                connection.close();
+            }
+        }
+
+        private List<Subscription> getSubscriptions() {
+            List<Subscription> subscriptions = new ArrayList<>();
+            routes.values().forEach(subscriptions::addAll);
+            return subscriptions;
+        }
+
+        @Override
+        public void onEvent(Event event) {
+            if (event.getType() == EventType.KEEP_ALIVE
+                    && HomeConnectEventSourceListener.ACCOUNT_HA_ID.equals(event.getHaId())) {
+                // Keep the streams of all appliances alive, also of those without any recent event
+                routes.forEach((haId, subscriptions) -> {
+                    Event keepAlive = new Event(haId, EventType.KEEP_ALIVE);
+                    subscriptions.forEach(subscription -> subscription.onEvent(keepAlive));
+                });
+                return;
+            }
+            List<Subscription> subscriptions = routes.getOrDefault(event.getHaId(), Collections.emptyList());
+            for (Subscription subscription : subscriptions) {
+                subscription.onEvent(event);
+            }
+        }
+
+        @Override
+        public void onClosed() {
+            getSubscriptions().forEach(Subscription::onClosed);
+        }
+
+        @Override
+        public void onRateLimitReached() {
+            getSubscriptions().forEach(Subscription::onRateLimitReached);
+        }
+
+        @Override
+        public void onReconnecting(int attempt, long delay) {
+            getSubscriptions().forEach(subscription -> subscription.onReconnecting(attempt, delay));
+        }
+
+        @Override
+        public void onReconnected(long gap) {
+            getSubscriptions().forEach(subscription -> subscription.onReconnected(gap));
+        }
     }
 }
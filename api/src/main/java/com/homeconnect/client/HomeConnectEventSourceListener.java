@@ -13,6 +13,7 @@
 package com.homeconnect.client;
 
 import static com.homeconnect.client.model.EventType.EVENT;
+import static com.homeconnect.client.model.EventType.KEEP_ALIVE;
 import static com.homeconnect.client.model.EventType.NOTIFY;
 import static com.homeconnect.client.model.EventType.STATUS;
 import static com.homeconnect.client.model.EventType.valueOfType;
@@ -26,7 +27,6 @@ import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Queue;
 import java.util.TimeZone;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -38,13 +38,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.homeconnect.client.history.EventHistory;
 import com.homeconnect.client.listener.HomeConnectEventListener;
 import com.homeconnect.client.model.Event;
 import com.homeconnect.client.model.EventHandling;
 import com.homeconnect.client.model.EventLevel;
 import com.homeconnect.client.model.EventType;
+import com.homeconnect.client.model.TypedValue;
 
 import okhttp3.Response;
 import okhttp3.ResponseBody;
@@ -64,25 +68,37 @@ public class HomeConnectEventSourceListener extends EventSourceListener {
     private static final int SSE_MONITOR_INTERVAL = 5; // in min
     private static final int SSE_MONITOR_BROKEN_CONNECTION_TIMEOUT = 3; // in min
 
-    private final String haId;
+    /** Appliance id of events concerning all appliances of the account event stream */
+    static final String ACCOUNT_HA_ID = "";
+
+    private static final Logger logger = LoggerFactory.getLogger(HomeConnectEventSourceListener.class);
+    private static final JsonParser jsonParser = new JsonParser();
+
+    private final @Nullable String haId;
     private final HomeConnectEventListener eventListener;
     private final HomeConnectEventSourceClient client;
-    private final Logger logger;
-    private final JsonParser jsonParser;
     private final ScheduledFuture<?> eventSourceMonitorFuture;
-    private final Queue<Event> eventQueue;
+    private final EventHistory eventHistory;
 
     private @Nullable LocalDateTime lastEventReceived;
+    private volatile @Nullable EventSource eventSource;
+    private boolean closed = false;
 
-    public HomeConnectEventSourceListener(String haId, final HomeConnectEventListener eventListener,
+    /**
+     * @param haId appliance of the event stream, or null for the aggregate stream of the account, whose events are
+     *            identified by the event id
+     * @param eventListener listener of the events
+     * @param client event source client
+     * @param scheduler scheduler of the connection monitor
+     * @param eventHistory history of the received events
+     */
+    public HomeConnectEventSourceListener(@Nullable String haId, final HomeConnectEventListener eventListener,
             final HomeConnectEventSourceClient client, final ScheduledExecutorService scheduler,
-            Queue<Event> eventQueue) {
+            EventHistory eventHistory) {
         this.haId = haId;
         this.eventListener = eventListener;
         this.client = client;
-        this.eventQueue = eventQueue;
-        jsonParser = new JsonParser();
-        logger = LoggerFactory.getLogger(HomeConnectEventSourceListener.class);
+        this.eventHistory = eventHistory;
 
         eventSourceMonitorFuture = createMonitor(scheduler);
     }
@@ -90,6 +106,8 @@ public class HomeConnectEventSourceListener extends EventSourceListener {
     @Override
     public void onOpen(@Nullable EventSource eventSource, @Nullable Response response) {
         logger.debug("Event source listener channel opened ({}).", haId);
+        this.eventSource = eventSource;
+        client.onConnected(this);
     }
 
     @Override
@@ -99,16 +117,28 @@ public class HomeConnectEventSourceListener extends EventSourceListener {
 
         @Nullable
         EventType eventType = valueOfType(type);
-        if (eventType != null) {
-            mapEventSourceEventToEvent(haId, eventType, data).forEach(event -> {
-                eventQueue.add(event);
-                logger.debug("Received event ({}): {}", haId, event);
+        @Nullable
+        String eventHaId = haId != null ? haId : id;
+        if (eventType != null && eventHaId != null) {
+            mapEventSourceEventToEvent(eventHaId, eventType, data).forEach(event -> {
+                eventHistory.add(event);
+                logger.debug("Received event ({}): {}", eventHaId, event);
                 try {
                     eventListener.onEvent(event);
                 } catch (Exception e) {
                     logger.error("Could not publish event to Listener!", e);
                 }
             });
+        } else if (eventType == KEEP_ALIVE) {
+            // The keep alive of the account event stream has no appliance id, the stream passes it to all of them
+            logger.trace("Received keep alive event of the account event stream.");
+            try {
+                eventListener.onEvent(new Event(ACCOUNT_HA_ID, KEEP_ALIVE));
+            } catch (Exception e) {
+                logger.error("Could not publish event to Listener!", e);
+            }
+        } else if (eventType != null) {
+            logger.warn("Received event without appliance id! type={}, data={}", type, data);
         } else {
             logger.warn("Received unknown event source type! haId={}, id={}, type={}, data={}", haId, id, type, data);
         }
@@ -117,15 +147,7 @@ public class HomeConnectEventSourceListener extends EventSourceListener {
     @Override
     public void onClosed(@Nullable EventSource eventSource) {
         logger.debug("Event source listener channel closed ({}).", haId);
-
-        client.unregisterEventListener(eventListener);
-
-        try {
-            eventListener.onClosed();
-        } catch (Exception e) {
-            logger.error("Could not publish closed event to listener ({})!", haId, e);
-        }
-        stopMonitor();
+        onConnectionLost(false, 0);
     }
 
     @Override
@@ -159,13 +181,35 @@ public class HomeConnectEventSourceListener extends EventSourceListener {
             response.close();
         }
 
-        client.unregisterEventListener(eventListener);
+        boolean rateLimited = "429".equals(responseCode);
+        long retryAfter = 0;
+        if (rateLimited) {
+            logger.warn(
+                    "More than 10 active event monitoring channels was reached. Further event monitoring requests are blocked. haId={}",
+                    haId);
+            retryAfter = parseRetryAfter(response);
+        }
+        onConnectionLost(rateLimited, retryAfter);
+    }
+
+    /**
+     * Let the client reconnect the lost event stream, or inform the listener that it closed.
+     * Only the first notification of the connection loss is handled.
+     */
+    private void onConnectionLost(boolean rateLimited, long retryAfter) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        stopMonitor();
 
+        if (client.reconnect(this, rateLimited, retryAfter)) {
+            return;
+        }
         try {
-            if ("429".equals(responseCode)) {
-                logger.warn(
-                        "More than 10 active event monitoring channels was reached. Further event monitoring requests are blocked. haId={}",
-                        haId);
+            if (rateLimited) {
                 eventListener.onRateLimitReached();
             } else {
                 eventListener.onClosed();
@@ -173,7 +217,18 @@ public class HomeConnectEventSourceListener extends EventSourceListener {
         } catch (Exception e) {
             logger.error("Could not publish closed event to listener ({})!", haId, e);
         }
-        stopMonitor();
+    }
+
+    private static long parseRetryAfter(@Nullable Response response) {
+        String retryAfter = response != null ? response.header("Retry-After") : null;
+        if (retryAfter != null) {
+            try {
+                return Long.parseLong(retryAfter.trim());
+            } catch (NumberFormatException e) {
+                logger.debug("Unable to parse Retry-After header: {}", retryAfter);
+            }
+        }
+        return 0;
     }
 
     private ScheduledFuture<?> createMonitor(ScheduledExecutorService scheduler) {
@@ -184,14 +239,11 @@ public class HomeConnectEventSourceListener extends EventSourceListener {
                     && ChronoUnit.MINUTES.between(lastEventReceived, now()) > SSE_MONITOR_BROKEN_CONNECTION_TIMEOUT) {
                 logger.warn("Dead event source connection detected ({}).", haId);
 
-                client.unregisterEventListener(eventListener);
-
-                try {
-                    eventListener.onClosed();
-                } catch (Exception e) {
-                    logger.error("Could not publish closed event to listener ({})!", haId, e);
+                EventSource eventSource = this.eventSource;
+                onConnectionLost(false, 0);
+                if (eventSource != null) {
+                    eventSource.cancel();
                 }
-                stopMonitor();
             }
         }, SSE_MONITOR_INITIAL_DELAY, SSE_MONITOR_INTERVAL, TimeUnit.MINUTES);
     }
@@ -201,7 +253,7 @@ public class HomeConnectEventSourceListener extends EventSourceListener {
         eventSourceMonitorFuture.cancel(true);
     }
 
-    private List<Event> mapEventSourceEventToEvent(String haId, EventType type, @Nullable String data) {
+    static List<Event> mapEventSourceEventToEvent(String haId, EventType type, @Nullable String data) {
         List<Event> events = new ArrayList<>();
 
         if ((STATUS.equals(type) || EVENT.equals(type) || NOTIFY.equals(type)) && data != null && !isEmpty(data)
@@ -214,10 +266,7 @@ public class HomeConnectEventSourceListener extends EventSourceListener {
                     JsonObject obj = (JsonObject) item;
                     @Nullable
                     String key = obj.get("key") != null ? obj.get("key").getAsString() : null;
-                    @Nullable
-                    String value = obj.get("value") != null && !obj.get("value").isJsonNull()
-                            ? obj.get("value").getAsString()
-                            : null;
+                    TypedValue value = mapValue(obj.get("value"));
                     @Nullable
                     String unit = obj.get("unit") != null ? obj.get("unit").getAsString() : null;
                     @Nullable
@@ -251,4 +300,18 @@ public class HomeConnectEventSourceListener extends EventSourceListener {
 
         return events;
     }
+
+    private static TypedValue mapValue(@Nullable JsonElement value) {
+        if (value == null || !value.isJsonPrimitive()) {
+            return TypedValue.NULL;
+        }
+        JsonPrimitive primitive = value.getAsJsonPrimitive();
+        if (primitive.isBoolean()) {
+            return TypedValue.ofBoolean(primitive.getAsBoolean());
+        }
+        if (primitive.isNumber()) {
+            return TypedValue.ofNumber(primitive.getAsString());
+        }
+        return TypedValue.ofString(primitive.getAsString());
+    }
 }
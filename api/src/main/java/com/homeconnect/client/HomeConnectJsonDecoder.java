@@ -0,0 +1,434 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.homeconnect.client.model.AvailableProgram;
+import com.homeconnect.client.model.AvailableProgramOption;
+import com.homeconnect.client.model.Data;
+import com.homeconnect.client.model.HomeAppliance;
+import com.homeconnect.client.model.Option;
+import com.homeconnect.client.model.Program;
+import com.homeconnect.client.model.TypedValue;
+
+import okio.BufferedSource;
+
+/**
+ * Streaming decoders of the Home Connect API response bodies.
+ *
+ * The model objects are built while reading, without materializing the body as string or JSON tree.
+ * Unknown fields are skipped and malformed bodies fail with an {@link IOException}.
+ */
+@NonNullByDefault
+final class HomeConnectJsonDecoder {
+
+    private HomeConnectJsonDecoder() {
+    }
+
+    static List<HomeAppliance> decodeHomeAppliances(BufferedSource source) throws IOException {
+        List<HomeAppliance> result = new ArrayList<>();
+        try (JsonReader reader = open(source)) {
+            if (enterData(reader) && enterObject(reader, "homeappliances")) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    result.add(readHomeAppliance(reader));
+                }
+                reader.endArray();
+            }
+        }
+        return result;
+    }
+
+    static HomeAppliance decodeHomeAppliance(BufferedSource source) throws IOException {
+        try (JsonReader reader = open(source)) {
+            if (!enterData(reader)) {
+                throw new IOException("Missing data object");
+            }
+            return readHomeAppliance(reader);
+        }
+    }
+
+    static Data decodeState(BufferedSource source) throws IOException {
+        try (JsonReader reader = open(source)) {
+            if (!enterData(reader)) {
+                throw new IOException("Missing data object");
+            }
+            Data data = readState(reader);
+            if (data == null) {
+                throw new IOException("Missing key of data object");
+            }
+            return data;
+        }
+    }
+
+    static List<Data> decodeStates(BufferedSource source, String listName) throws IOException {
+        List<Data> result = new ArrayList<>();
+        try (JsonReader reader = open(source)) {
+            if (enterData(reader) && enterObject(reader, listName)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Data data = readState(reader);
+                    if (data != null && data.getValue() != null) {
+                        result.add(data);
+                    }
+                }
+                reader.endArray();
+            }
+        }
+        return result;
+    }
+
+    static Program decodeProgram(BufferedSource source) throws IOException {
+        try (JsonReader reader = open(source)) {
+            if (!enterData(reader)) {
+                throw new IOException("Missing data object");
+            }
+            String key = null;
+            List<Option> options = new ArrayList<>();
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                case "key":
+                    key = readString(reader);
+                    break;
+                case "options":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        options.add(readOption(reader));
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+                }
+            }
+            return new Program(require(key, "key"), options);
+        }
+    }
+
+    static List<AvailableProgram> decodeAvailablePrograms(BufferedSource source) throws IOException {
+        List<AvailableProgram> result = new ArrayList<>();
+        try (JsonReader reader = open(source)) {
+            if (enterData(reader) && enterObject(reader, "programs")) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    AvailableProgram program = readAvailableProgram(reader);
+                    if (program != null) {
+                        result.add(program);
+                    }
+                }
+                reader.endArray();
+            }
+        }
+        return result;
+    }
+
+    static List<AvailableProgramOption> decodeAvailableProgramOptions(BufferedSource source) throws IOException {
+        List<AvailableProgramOption> result = new ArrayList<>();
+        try (JsonReader reader = open(source)) {
+            if (enterData(reader) && enterObject(reader, "options")) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    AvailableProgramOption option = readAvailableProgramOption(reader);
+                    if (option != null) {
+                        result.add(option);
+                    }
+                }
+                reader.endArray();
+            }
+        }
+        return result;
+    }
+
+    private static JsonReader open(BufferedSource source) {
+        return new JsonReader(new InputStreamReader(source.inputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static boolean enterData(JsonReader reader) throws IOException {
+        reader.beginObject();
+        return enterObject(reader, "data");
+    }
+
+    /**
+     * Skip the fields of the current object until the field with the given name.
+     *
+     * @return true if the reader is positioned at the value of the field
+     */
+    private static boolean enterObject(JsonReader reader, String name) throws IOException {
+        if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+            reader.beginObject();
+        }
+        while (reader.hasNext()) {
+            if (name.equals(reader.nextName())) {
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    return false;
+                }
+                return true;
+            }
+            reader.skipValue();
+        }
+        return false;
+    }
+
+    private static HomeAppliance readHomeAppliance(JsonReader reader) throws IOException {
+        String haId = null;
+        String name = null;
+        String brand = null;
+        String vib = null;
+        String type = null;
+        String enumber = null;
+        boolean connected = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+            case "haId":
+                haId = readString(reader);
+                break;
+            case "name":
+                name = readString(reader);
+                break;
+            case "brand":
+                brand = readString(reader);
+                break;
+            case "vib":
+                vib = readString(reader);
+                break;
+            case "type":
+                type = readString(reader);
+                break;
+            case "enumber":
+                enumber = readString(reader);
+                break;
+            case "connected":
+                connected = Boolean.parseBoolean(readString(reader));
+                break;
+            default:
+                reader.skipValue();
+                break;
+            }
+        }
+        reader.endObject();
+
+        return new HomeAppliance(require(haId, "haId"), require(name, "name"), require(brand, "brand"),
+                require(vib, "vib"), connected, require(type, "type"), require(enumber, "enumber"));
+    }
+
+    private static @Nullable Data readState(JsonReader reader) throws IOException {
+        String key = null;
+        TypedValue value = TypedValue.NULL;
+        String unit = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+            case "key":
+                key = readString(reader);
+                break;
+            case "value":
+                value = readValue(reader);
+                break;
+            case "unit":
+                unit = readString(reader);
+                break;
+            default:
+                reader.skipValue();
+                break;
+            }
+        }
+        reader.endObject();
+
+        return key != null ? new Data(key, value, unit) : null;
+    }
+
+    private static Option readOption(JsonReader reader) throws IOException {
+        String key = null;
+        String value = null;
+        String unit = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+            case "key":
+                key = readString(reader);
+                break;
+            case "value":
+                value = readString(reader);
+                break;
+            case "unit":
+                unit = readString(reader);
+                break;
+            default:
+                reader.skipValue();
+                break;
+            }
+        }
+        reader.endObject();
+
+        return new Option(key, value, unit);
+    }
+
+    private static @Nullable AvailableProgram readAvailableProgram(JsonReader reader) throws IOException {
+        String key = null;
+        String execution = null;
+        boolean available = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+            case "key":
+                key = readString(reader);
+                break;
+            case "constraints":
+                if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                    reader.skipValue();
+                    break;
+                }
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                    case "available":
+                        available = Boolean.parseBoolean(readString(reader));
+                        break;
+                    case "execution":
+                        execution = readString(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                    }
+                }
+                reader.endObject();
+                break;
+            default:
+                reader.skipValue();
+                break;
+            }
+        }
+        reader.endObject();
+
+        return key != null && execution != null ? new AvailableProgram(key, available, execution) : null;
+    }
+
+    private static @Nullable AvailableProgramOption readAvailableProgramOption(JsonReader reader)
+            throws IOException {
+        String key = null;
+        List<String> allowedValues = new ArrayList<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+            case "key":
+                key = readString(reader);
+                break;
+            case "constraints":
+                if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                    reader.skipValue();
+                    break;
+                }
+                if (enterObject(reader, "allowedvalues")) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        String value = readString(reader);
+                        if (value != null) {
+                            allowedValues.add(value);
+                        }
+                    }
+                    reader.endArray();
+                }
+                while (reader.hasNext()) {
+                    reader.nextName();
+                    reader.skipValue();
+                }
+                reader.endObject();
+                break;
+            default:
+                reader.skipValue();
+                break;
+            }
+        }
+        reader.endObject();
+
+        return key != null ? new AvailableProgramOption(key, allowedValues) : null;
+    }
+
+    /**
+     * Read a primitive value as string, like {@code JsonElement.getAsString()} would.
+     *
+     * @return the value or null for JSON null, objects and arrays
+     */
+    private static @Nullable String readString(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+        case BOOLEAN:
+            return Boolean.toString(reader.nextBoolean());
+        case NUMBER:
+        case STRING:
+            return reader.nextString();
+        case NULL:
+            reader.nextNull();
+            return null;
+        default:
+            reader.skipValue();
+            return null;
+        }
+    }
+
+    /**
+     * Read a primitive value once with its JSON type.
+     *
+     * @return the value or {@link TypedValue#NULL} for JSON null, objects and arrays
+     */
+    private static TypedValue readValue(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+        case BOOLEAN:
+            return TypedValue.ofBoolean(reader.nextBoolean());
+        case NUMBER:
+            return TypedValue.ofNumber(reader.nextString());
+        case STRING:
+            return TypedValue.ofString(reader.nextString());
+        case NULL:
+            reader.nextNull();
+            return TypedValue.NULL;
+        default:
+            reader.skipValue();
+            return TypedValue.NULL;
+        }
+    }
+
+    private static String require(@Nullable String value, String name) throws IOException {
+        if (value == null) {
+            throw new IOException("Missing field: " + name);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client;
+
+import static io.github.bucket4j.Bandwidth.classic;
+import static io.github.bucket4j.Refill.intervally;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.homeconnect.client.exception.CommunicationException;
+
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.Bucket4j;
+
+/**
+ * Rate limiting scheduler of the REST requests of one Home Connect account.
+ *
+ * Requests wait for a ticket, that is handed out as soon as the rate limit allows it. Commands are handed
+ * out before polling requests and within each priority, the home appliances take turns, so a chatty
+ * appliance can not starve the others.
+ *
+ * Checkout rate limits of the API at. https://developer.home-connect.com/docs/general/ratelimiting
+ */
+@NonNullByDefault
+public class HomeConnectRequestScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(HomeConnectRequestScheduler.class);
+
+    // 50 requests per minute, with a 10 second buffer
+    private static final int DEFAULT_REQUESTS_PER_MINUTE = 50;
+    private static final int DEFAULT_INITIAL_REQUESTS = 40;
+    private static final int DEFAULT_REQUESTS_PER_SECOND = 10;
+    private static final long MINUTE_BUFFER = 10; // in s
+
+    // the dispatcher thread stops when idle and is restarted on demand
+    private static final long DISPATCHER_IDLE_TIMEOUT = 60000; // in ms
+
+    private static final String UNKNOWN_APPLIANCE = "";
+
+    private static final Map<String, HomeConnectRequestScheduler> schedulers = new ConcurrentHashMap<>();
+
+    // Schedulers do not reference the credential, so they are dropped with it
+    private static final Map<Credential, HomeConnectRequestScheduler> credentialSchedulers = Collections
+            .synchronizedMap(new WeakHashMap<>());
+
+    public static enum Priority {
+        /** Commands, changing the state of an appliance */
+        COMMAND,
+        /** Reading requests, e.g. background polling */
+        POLLING;
+    }
+
+    private final String name;
+    private final Bucket bucket;
+
+    private final Map<Priority, Lane> lanes = new EnumMap<>(Priority.class);
+    private final Map<Priority, Statistics> statistics = new EnumMap<>(Priority.class);
+
+    private @Nullable Thread dispatcher;
+    private boolean running = true;
+
+    public HomeConnectRequestScheduler(String name) {
+        this(name, DEFAULT_REQUESTS_PER_MINUTE, DEFAULT_REQUESTS_PER_SECOND);
+    }
+
+    public HomeConnectRequestScheduler(String name, int requestsPerMinute, int requestsPerSecond) {
+        this.name = name;
+        this.bucket = Bucket4j.builder()
+                .addLimit(classic(requestsPerMinute,
+                        intervally(requestsPerMinute, Duration.ofSeconds(60 + MINUTE_BUFFER)))
+                        .withInitialTokens(Math.min(DEFAULT_INITIAL_REQUESTS, requestsPerMinute)))
+                .addLimit(classic(requestsPerSecond, intervally(requestsPerSecond, Duration.ofSeconds(1)))
+                        .withInitialTokens(0))
+                .build();
+
+        for (Priority priority : Priority.values()) {
+            lanes.put(priority, new Lane());
+            statistics.put(priority, new Statistics());
+        }
+    }
+
+    /**
+     * Get the shared scheduler of an account, created with the default rate limits on first use.
+     *
+     * @param account account name
+     * @return shared scheduler
+     */
+    public static HomeConnectRequestScheduler getInstance(String account) {
+        return schedulers.computeIfAbsent(account, HomeConnectRequestScheduler::new);
+    }
+
+    /**
+     * Get the shared scheduler of a credential, for clients that are created without account name. All clients
+     * sending requests with the same credential share its rate limits.
+     *
+     * @param credential OAuth credential of the account
+     * @return shared scheduler
+     */
+    public static HomeConnectRequestScheduler getInstance(Credential credential) {
+        return credentialSchedulers.computeIfAbsent(credential,
+                c -> new HomeConnectRequestScheduler("credential-" + Integer.toHexString(System.identityHashCode(c))));
+    }
+
+    public static Priority getPriority(String method) {
+        return "GET".equals(method) || "HEAD".equals(method) ? Priority.POLLING : Priority.COMMAND;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Queue a request for a ticket.
+     *
+     * @param haId home appliance id or null for account wide requests
+     * @param priority priority of the request
+     * @return future completed when the request may be sent, cancel it to leave the queue
+     */
+    public CompletableFuture<Void> schedule(@Nullable String haId, Priority priority) {
+        Ticket ticket = new Ticket(haId != null ? haId : UNKNOWN_APPLIANCE, priority);
+        synchronized (this) {
+            if (!running) {
+                ticket.future.completeExceptionally(new CommunicationException("Request scheduler shut down"));
+                return ticket.future;
+            }
+            lanes.get(priority).add(ticket);
+            if (dispatcher == null) {
+                Thread thread = new Thread(this::dispatch, "homeconnect-scheduler-" + name);
+                thread.setDaemon(true);
+                thread.start();
+                dispatcher = thread;
+            }
+            notifyAll();
+        }
+        return ticket.future;
+    }
+
+    /**
+     * Block the calling thread until the request may be sent.
+     *
+     * @param haId home appliance id or null for account wide requests
+     * @param priority priority of the request
+     * @throws CommunicationException if interrupted while waiting or the scheduler was shut down
+     */
+    public void acquire(@Nullable String haId, Priority priority) throws CommunicationException {
+        CompletableFuture<Void> ticket = schedule(haId, priority);
+        try {
+            ticket.get();
+        } catch (InterruptedException e) {
+            ticket.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new CommunicationException("Interrupted while waiting for rate limit", e);
+        } catch (Exception e) {
+            throw new CommunicationException("Request scheduler shut down", e);
+        }
+    }
+
+    public synchronized int getQueueLength() {
+        int length = 0;
+        for (Lane lane : lanes.values()) {
+            length += lane.size;
+        }
+        return length;
+    }
+
+    public synchronized int getQueueLength(Priority priority) {
+        return lanes.get(priority).size;
+    }
+
+    public synchronized int getQueueLength(String haId) {
+        int length = 0;
+        for (Lane lane : lanes.values()) {
+            Deque<Ticket> queue = lane.queues.get(haId);
+            if (queue != null) {
+                length += queue.size();
+            }
+        }
+        return length;
+    }
+
+    public long getDispatchedCount(Priority priority) {
+        return statistics.get(priority).count.get();
+    }
+
+    public long getAverageWaitTime(Priority priority, TimeUnit unit) {
+        Statistics stats = statistics.get(priority);
+        long count = stats.count.get();
+        return count > 0 ? unit.convert(stats.totalWait.get() / count, TimeUnit.NANOSECONDS) : 0;
+    }
+
+    public long getMaxWaitTime(Priority priority, TimeUnit unit) {
+        return unit.convert(statistics.get(priority).maxWait.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stop handing out tickets and fail all waiting requests.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            running = false;
+            for (Lane lane : lanes.values()) {
+                Ticket ticket;
+                while ((ticket = lane.poll()) != null) {
+                    ticket.future.completeExceptionally(new CommunicationException("Request scheduler shut down"));
+                }
+            }
+            notifyAll();
+        }
+        schedulers.remove(name, this);
+        credentialSchedulers.values().remove(this);
+    }
+
+    private void dispatch() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    long idleSince = System.currentTimeMillis();
+                    while (running && getQueueLength() == 0) {
+                        long idle = System.currentTimeMillis() - idleSince;
+                        if (idle >= DISPATCHER_IDLE_TIMEOUT) {
+                            dispatcher = null;
+                            return;
+                        }
+                        wait(DISPATCHER_IDLE_TIMEOUT - idle);
+                    }
+                    if (!running) {
+                        dispatcher = null;
+                        return;
+                    }
+                }
+                bucket.asScheduler().consume(1);
+
+                Ticket ticket;
+                synchronized (this) {
+                    ticket = lanes.get(Priority.COMMAND).poll();
+                    if (ticket == null) {
+                        ticket = lanes.get(Priority.POLLING).poll();
+                    }
+                }
+                if (ticket == null) {
+                    // All waiting requests were cancelled
+                    bucket.addTokens(1);
+                    continue;
+                }
+                statistics.get(ticket.priority).record(System.nanoTime() - ticket.created);
+                ticket.future.complete(null);
+            }
+        } catch (InterruptedException e) {
+            logger.debug("Request scheduler {} interrupted", name);
+            synchronized (this) {
+                dispatcher = null;
+            }
+        }
+    }
+
+    private static class Ticket {
+
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private final String haId;
+        private final Priority priority;
+        private final long created = System.nanoTime();
+
+        private Ticket(String haId, Priority priority) {
+            this.haId = haId;
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * Queues of one priority, served round-robin by home appliance.
+     */
+    private static class Lane {
+
+        private final Map<String, Deque<Ticket>> queues = new HashMap<>();
+        private final Deque<String> rotation = new ArrayDeque<>();
+        private int size = 0;
+
+        private void add(Ticket ticket) {
+            Deque<Ticket> queue = queues.computeIfAbsent(ticket.haId, haId -> new ArrayDeque<>());
+            if (queue.isEmpty()) {
+                rotation.addLast(ticket.haId);
+            }
+            queue.addLast(ticket);
+            size++;
+        }
+
+        private @Nullable Ticket poll() {
+            String haId;
+            while ((haId = rotation.pollFirst()) != null) {
+                Deque<Ticket> queue = queues.get(haId);
+                Ticket ticket = queue.pollFirst();
+                size--;
+                if (queue.isEmpty()) {
+                    queues.remove(haId);
+                } else {
+                    rotation.addLast(haId);
+                }
+                if (ticket != null && !ticket.future.isDone()) {
+                    return ticket;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static class Statistics {
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalWait = new AtomicLong();
+        private final AtomicLong maxWait = new AtomicLong();
+
+        private void record(long wait) {
+            count.incrementAndGet();
+            totalWait.addAndGet(wait);
+            maxWait.accumulateAndGet(wait, Math::max);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.homeconnect.client.listener.HomeConnectEventListener;
+import com.homeconnect.client.model.Data;
+import com.homeconnect.client.model.Event;
+
+/**
+ * Per appliance cache of setting and status values, kept up to date by the event stream.
+ *
+ * Values are only served while the event stream of the appliance is open and alive. Keys the stream has
+ * not populated yet are left to the REST client, which seeds the cache with the polled value.
+ */
+@NonNullByDefault
+public class HomeConnectStateCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(HomeConnectStateCache.class);
+
+    // the API sends keep alive events every 55 seconds
+    private static final long STREAM_TIMEOUT = TimeUnit.MINUTES.toMillis(3);
+
+    private final Map<String, ApplianceState> appliances = new ConcurrentHashMap<>();
+
+    /**
+     * Create a listener, to be registered at the {@link HomeConnectEventSourceClient}, that keeps the cache of
+     * an appliance up to date.
+     *
+     * @param haId home appliance id
+     * @return event listener feeding this cache
+     */
+    public HomeConnectEventListener createListener(String haId) {
+        return createListener(haId, null);
+    }
+
+    /**
+     * Create a listener, to be registered at the {@link HomeConnectEventSourceClient}, that keeps the cache of
+     * an appliance up to date and forwards all notifications to another listener.
+     *
+     * @param haId home appliance id
+     * @param listener listener to forward notifications to
+     * @return event listener feeding this cache
+     */
+    public HomeConnectEventListener createListener(String haId, @Nullable HomeConnectEventListener listener) {
+        return new HomeConnectEventListener() {
+
+            @Override
+            public void onEvent(Event event) {
+                update(event);
+                if (listener != null) {
+                    listener.onEvent(event);
+                }
+            }
+
+            @Override
+            public void onClosed() {
+                close(haId);
+                if (listener != null) {
+                    listener.onClosed();
+                }
+            }
+
+            @Override
+            public void onRateLimitReached() {
+                close(haId);
+                if (listener != null) {
+                    listener.onRateLimitReached();
+                }
+            }
+
+            @Override
+            public void onReconnecting(int attempt, long delay) {
+                // Events may be missed until the stream is reopened
+                close(haId);
+                if (listener != null) {
+                    listener.onReconnecting(attempt, delay);
+                }
+            }
+
+            @Override
+            public void onReconnected(long gap) {
+                if (listener != null) {
+                    listener.onReconnected(gap);
+                }
+            }
+        };
+    }
+
+    /**
+     * Update the cache with a received event.
+     *
+     * @param event appliance event
+     */
+    public void update(Event event) {
+        ApplianceState state = appliances.computeIfAbsent(event.getHaId(), haId -> new ApplianceState());
+        state.lastEventReceived = System.currentTimeMillis();
+        state.open = true;
+
+        switch (event.getType()) {
+        case STATUS:
+        case EVENT:
+        case NOTIFY:
+            String key = event.getKey();
+            if (key == null) {
+                break;
+            }
+            if (event.getValue() != null) {
+                state.values.put(key, new Data(key, event.getTypedValue(), event.getUnit()));
+            } else {
+                state.values.remove(key);
+            }
+            break;
+        case DISCONNECTED:
+        case DEPAIRED:
+            // Let the REST client report the appliance state, until it reconnects
+            state.values.clear();
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Seed the cache with a value, polled by the REST client. Values already received by the event stream
+     * will not be overridden.
+     *
+     * @param haId home appliance id
+     * @param data polled value
+     */
+    public void put(String haId, Data data) {
+        ApplianceState state = appliances.get(haId);
+        if (state != null && state.isAlive()) {
+            state.values.putIfAbsent(data.getName(), data);
+        }
+    }
+
+    /**
+     * Get the cached value of a key, if the event stream of the appliance is alive.
+     *
+     * @param haId home appliance id
+     * @param key setting or status key
+     * @return cached {@link Data} or null if the value needs to be polled
+     */
+    public @Nullable Data get(String haId, String key) {
+        ApplianceState state = appliances.get(haId);
+        if (state == null || !state.isAlive()) {
+            return null;
+        }
+        return state.values.get(key);
+    }
+
+    /**
+     * Drop the cached value of a key, e.g. after it was written, until the event stream reports it again.
+     *
+     * @param haId home appliance id
+     * @param key setting or status key
+     */
+    public void remove(String haId, String key) {
+        ApplianceState state = appliances.get(haId);
+        if (state != null) {
+            state.values.remove(key);
+        }
+    }
+
+    /**
+     * Whether values of the appliance are currently served by the cache.
+     *
+     * @param haId home appliance id
+     * @return true if the event stream of the appliance is alive
+     */
+    public boolean isAlive(String haId) {
+        ApplianceState state = appliances.get(haId);
+        return state != null && state.isAlive();
+    }
+
+    /**
+     * Mark the event stream of an appliance as closed and drop its values, as further changes may be missed.
+     *
+     * @param haId home appliance id
+     */
+    public void close(String haId) {
+        ApplianceState state = appliances.get(haId);
+        if (state != null) {
+            logger.debug("Invalidate cached state of appliance ({}).", haId);
+            state.open = false;
+            state.values.clear();
+        }
+    }
+
+    public void clear() {
+        appliances.clear();
+    }
+
+    private static class ApplianceState {
+
+        private final Map<String, Data> values = new ConcurrentHashMap<>();
+
+        private volatile long lastEventReceived;
+        private volatile boolean open;
+
+        private boolean isAlive() {
+            return open && System.currentTimeMillis() - lastEventReceived < STREAM_TIMEOUT;
+        }
+    }
+}
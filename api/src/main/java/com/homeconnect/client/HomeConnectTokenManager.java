@@ -0,0 +1,308 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.homeconnect.client.exception.AuthorizationException;
+import com.homeconnect.client.exception.CommunicationException;
+import com.homeconnect.client.exception.HomeConnectException;
+import com.homeconnect.client.metrics.HomeConnectMetricsListener;
+
+import okhttp3.Request;
+
+/**
+ * Keeps the access token of a {@link Credential} fresh.
+ *
+ * The token is refreshed in the background ahead of its expiry, so requests get the cached authorization
+ * header without blocking. Only if the token already expired, callers wait for a refresh, which is shared
+ * by all concurrent callers. After a failed refresh, callers fail fast until the next retry is due.
+ */
+@NonNullByDefault
+public class HomeConnectTokenManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(HomeConnectTokenManager.class);
+
+    private static final String HEADER_AUTHORIZATION = "Authorization";
+    private static final String BEARER = "Bearer ";
+
+    private static final long REFRESH_AHEAD = TimeUnit.MINUTES.toMillis(5);
+    private static final long EXPIRY_MARGIN = TimeUnit.SECONDS.toMillis(60);
+    private static final long RETRY_DELAY_MIN = TimeUnit.SECONDS.toMillis(5);
+    private static final long RETRY_DELAY_MAX = TimeUnit.MINUTES.toMillis(5);
+
+    private static final Map<Credential, HomeConnectTokenManager> managers = Collections
+            .synchronizedMap(new WeakHashMap<>());
+
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "homeconnect-token-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Held weakly, as the manager is the value of the weak map keyed by the credential and referenced by the
+    // scheduled refresh. Once no client uses the credential anymore, the background refresh stops.
+    private final WeakReference<Credential> credential;
+
+    // Listeners are held weakly, as clients sharing the credential are not closed explicitly
+    private final Set<HomeConnectMetricsListener> listeners = Collections
+            .synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    private volatile @Nullable String authorization;
+    private volatile long expiresAt;
+
+    private @Nullable CompletableFuture<String> refresh;
+    private @Nullable ScheduledFuture<?> scheduledRefresh;
+    private @Nullable HomeConnectException refreshError;
+    private long retryAt = 0;
+    private int failures = 0;
+
+    private HomeConnectTokenManager(Credential credential) {
+        this.credential = new WeakReference<>(credential);
+        update(credential);
+    }
+
+    /**
+     * Get the token manager of a credential, shared by all clients using it.
+     *
+     * @param credential OAuth credential
+     * @return token manager
+     */
+    public static HomeConnectTokenManager getInstance(Credential credential) {
+        return managers.computeIfAbsent(credential, HomeConnectTokenManager::new);
+    }
+
+    /**
+     * Inform a listener about token refreshes. The listener is only referenced weakly.
+     *
+     * @param listener metrics listener
+     */
+    public void addListener(HomeConnectMetricsListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(HomeConnectMetricsListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Get the value of the authorization header.
+     *
+     * @return bearer authorization
+     * @throws HomeConnectException if the token expired and can not be refreshed
+     */
+    public String getAuthorization() throws HomeConnectException {
+        String authorization = getValidAuthorization();
+        if (authorization != null) {
+            return authorization;
+        }
+        try {
+            return refresh().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommunicationException("Interrupted while refreshing token", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof HomeConnectException) {
+                throw (HomeConnectException) cause;
+            }
+            throw new AuthorizationException(cause != null ? cause : e);
+        }
+    }
+
+    /**
+     * Get the value of the authorization header, without blocking the calling thread.
+     *
+     * @return future of the bearer authorization
+     */
+    public CompletableFuture<String> getAuthorizationAsync() {
+        String authorization = getValidAuthorization();
+        if (authorization != null) {
+            return CompletableFuture.completedFuture(authorization);
+        }
+        return refresh();
+    }
+
+    /**
+     * Set the current authorization header of a request, e.g. after it waited for being sent.
+     *
+     * @param request request to authorize
+     * @return authorized request
+     * @throws HomeConnectException if the token expired and can not be refreshed
+     */
+    public Request authorize(Request request) throws HomeConnectException {
+        return authorize(request, getAuthorization());
+    }
+
+    /**
+     * Set the current authorization header of a request, without blocking the calling thread.
+     *
+     * @param request request to authorize
+     * @return future of the authorized request
+     */
+    public CompletableFuture<Request> authorizeAsync(Request request) {
+        return getAuthorizationAsync().thenApply(authorization -> authorize(request, authorization));
+    }
+
+    private static Request authorize(Request request, String authorization) {
+        if (authorization.equals(request.header(HEADER_AUTHORIZATION))) {
+            return request;
+        }
+        return request.newBuilder().header(HEADER_AUTHORIZATION, authorization).build();
+    }
+
+    /**
+     * Refresh the token, unless a refresh is already running or the retry after a failure is not due yet.
+     *
+     * @return future of the refreshed authorization
+     */
+    public synchronized CompletableFuture<String> refresh() {
+        CompletableFuture<String> refresh = this.refresh;
+        if (refresh != null) {
+            return refresh;
+        }
+        HomeConnectException refreshError = this.refreshError;
+        if (refreshError != null && System.currentTimeMillis() < retryAt) {
+            CompletableFuture<String> failed = new CompletableFuture<>();
+            failed.completeExceptionally(refreshError);
+            return failed;
+        }
+        CompletableFuture<String> future = new CompletableFuture<>();
+        this.refresh = future;
+        executor.execute(() -> doRefresh(future));
+        return future;
+    }
+
+    private @Nullable String getValidAuthorization() {
+        String authorization = this.authorization;
+        if (authorization != null && System.currentTimeMillis() < expiresAt - EXPIRY_MARGIN) {
+            return authorization;
+        }
+        return null;
+    }
+
+    private void doRefresh(CompletableFuture<String> future) {
+        Credential credential = this.credential.get();
+        if (credential == null) {
+            logger.debug("Credential released, stopping token refresh");
+            synchronized (this) {
+                refresh = null;
+                cancelSchedule();
+            }
+            future.completeExceptionally(new AuthorizationException("Credential released"));
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            if (!credential.refreshToken()) {
+                throw new AuthorizationException("Token refresh rejected");
+            }
+            String authorization = update(credential);
+            if (authorization == null) {
+                throw new AuthorizationException("No access token available!");
+            }
+            logger.info("Token refreshed. Expiring in: {}secs", credential.getExpiresInSeconds());
+            synchronized (this) {
+                refresh = null;
+                refreshError = null;
+                failures = 0;
+            }
+            notifyListeners(true, System.nanoTime() - start);
+            future.complete(authorization);
+
+        } catch (IOException | HomeConnectException | RuntimeException e) {
+            HomeConnectException error = e instanceof HomeConnectException ? (HomeConnectException) e
+                    : new CommunicationException(e.getMessage() != null ? e.getMessage() : "Token refresh failed", e);
+            long delay;
+            synchronized (this) {
+                delay = Math.min(RETRY_DELAY_MAX, RETRY_DELAY_MIN << Math.min(failures, 16));
+                failures++;
+                retryAt = System.currentTimeMillis() + delay;
+                refresh = null;
+                refreshError = error;
+            }
+            logger.warn("Token refresh failed, retrying in {}s: {}", delay / 1000, error.getMessage());
+            schedule(delay);
+            notifyListeners(false, System.nanoTime() - start);
+            future.completeExceptionally(error);
+        }
+    }
+
+    private void notifyListeners(boolean success, long duration) {
+        HomeConnectMetricsListener[] listeners;
+        synchronized (this.listeners) {
+            listeners = this.listeners.toArray(new HomeConnectMetricsListener[0]);
+        }
+        for (HomeConnectMetricsListener listener : listeners) {
+            try {
+                listener.onTokenRefresh(success, duration);
+            } catch (RuntimeException e) {
+                logger.warn("Metrics listener failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Cache the token of the credential and schedule its refresh ahead of the expiry.
+     */
+    private @Nullable String update(Credential credential) {
+        String accessToken = credential.getAccessToken();
+        Long expirationTime = credential.getExpirationTimeMilliseconds();
+
+        String authorization = accessToken != null ? BEARER + accessToken : null;
+        this.expiresAt = expirationTime != null ? expirationTime : 0;
+        this.authorization = authorization;
+
+        if (authorization != null && expirationTime != null) {
+            schedule(Math.max(0, expirationTime - REFRESH_AHEAD - System.currentTimeMillis()));
+        }
+        return authorization;
+    }
+
+    private synchronized void schedule(long delay) {
+        cancelSchedule();
+        this.scheduledRefresh = executor.schedule(this::refresh, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void cancelSchedule() {
+        ScheduledFuture<?> scheduledRefresh = this.scheduledRefresh;
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+            this.scheduledRefresh = null;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * HTTP transport shared by the REST and Server-Sent-Events clients of one API base URL.
+ *
+ * Both clients use the same connection pool, so a fleet of appliances reuses a few (HTTP/2 multiplexed)
+ * TLS connections. Event streams hold on to their call for as long as they are open and get a dispatcher
+ * of their own, to never occupy the request slots of the REST client.
+ */
+@NonNullByDefault
+public class HomeConnectTransport {
+
+    private static final Logger logger = LoggerFactory.getLogger(HomeConnectTransport.class);
+
+    private static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+    private static final long DEFAULT_KEEP_ALIVE = 10; // in min
+    private static final int DEFAULT_MAX_REQUESTS = 64;
+    private static final int DEFAULT_MAX_REQUESTS_PER_HOST = 10;
+    private static final int DEFAULT_MAX_EVENT_STREAMS = 256;
+    private static final int SSE_REQUEST_READ_TIMEOUT = 90; // in s
+
+    private static final Map<String, HomeConnectTransport> transports = new ConcurrentHashMap<>();
+
+    private final String apiUrl;
+    private final ConnectionPool connectionPool;
+    private final Dispatcher dispatcher;
+    private final Dispatcher eventSourceDispatcher;
+    private final OkHttpClient client;
+    private final OkHttpClient eventSourceClient;
+
+    private HomeConnectTransport(Builder builder) {
+        this.apiUrl = builder.apiUrl;
+
+        connectionPool = new ConnectionPool(builder.maxIdleConnections, builder.keepAliveMillis,
+                TimeUnit.MILLISECONDS);
+
+        dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(builder.maxRequests);
+        dispatcher.setMaxRequestsPerHost(builder.maxRequestsPerHost);
+
+        eventSourceDispatcher = new Dispatcher();
+        eventSourceDispatcher.setMaxRequests(builder.maxEventStreams);
+        eventSourceDispatcher.setMaxRequestsPerHost(builder.maxEventStreams);
+
+        List<Protocol> protocols = builder.http2 ? asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                : singletonList(Protocol.HTTP_1_1);
+
+        client = OkHttpHelper.builder().connectionPool(connectionPool).dispatcher(dispatcher).protocols(protocols)
+                .pingInterval(builder.pingIntervalMillis, TimeUnit.MILLISECONDS).build();
+
+        eventSourceClient = client.newBuilder().dispatcher(eventSourceDispatcher)
+                .readTimeout(SSE_REQUEST_READ_TIMEOUT, TimeUnit.SECONDS).retryOnConnectionFailure(true).build();
+    }
+
+    /**
+     * Get the shared transport of an API base URL, created with the default settings on first use.
+     *
+     * @param apiUrl API base URL
+     * @return shared transport
+     */
+    public static HomeConnectTransport getInstance(String apiUrl) {
+        return transports.computeIfAbsent(apiUrl, url -> new Builder(url).build());
+    }
+
+    public static Builder builder(String apiUrl) {
+        return new Builder(apiUrl);
+    }
+
+    public String getApiUrl() {
+        return apiUrl;
+    }
+
+    /**
+     * Client for REST requests.
+     *
+     * @return shared {@link OkHttpClient}
+     */
+    public OkHttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * Client for long running event streams, sharing the connection pool of the REST client.
+     *
+     * @return shared {@link OkHttpClient}
+     */
+    public OkHttpClient getEventSourceClient() {
+        return eventSourceClient;
+    }
+
+    public int getConnectionCount() {
+        return connectionPool.connectionCount();
+    }
+
+    public int getIdleConnectionCount() {
+        return connectionPool.idleConnectionCount();
+    }
+
+    public int getRunningCallsCount() {
+        return dispatcher.runningCallsCount();
+    }
+
+    public int getQueuedCallsCount() {
+        return dispatcher.queuedCallsCount();
+    }
+
+    /**
+     * Open a connection to the API in the background, so the first request does not pay for the TLS handshake.
+     */
+    public void prewarm() {
+        Request request = new Request.Builder().url(apiUrl).head().build();
+        client.newCall(request).enqueue(new Callback() {
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                logger.debug("Unable to prewarm connection to {}: {}", apiUrl, e.getMessage());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                logger.trace("Prewarmed connection to {} ({})", apiUrl, response.protocol());
+                response.close();
+            }
+        });
+    }
+
+    /**
+     * Close idle connections and stop the dispatcher threads of a transport, that is not shared.
+     */
+    public void shutdown() {
+        if (transports.get(apiUrl) == this) {
+            logger.warn("Refusing to shut down the shared transport of {}", apiUrl);
+            return;
+        }
+        dispatcher.cancelAll();
+        eventSourceDispatcher.cancelAll();
+        dispatcher.executorService().shutdown();
+        eventSourceDispatcher.executorService().shutdown();
+        connectionPool.evictAll();
+    }
+
+    public static class Builder {
+
+        private final String apiUrl;
+
+        private int maxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+        private long keepAliveMillis = TimeUnit.MINUTES.toMillis(DEFAULT_KEEP_ALIVE);
+        private long pingIntervalMillis = 0;
+        private int maxRequests = DEFAULT_MAX_REQUESTS;
+        private int maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+        private int maxEventStreams = DEFAULT_MAX_EVENT_STREAMS;
+        private boolean http2 = true;
+        private boolean prewarm = false;
+
+        private Builder(String apiUrl) {
+            this.apiUrl = apiUrl;
+        }
+
+        /**
+         * @param maxIdleConnections maximum number of idle connections kept in the pool
+         * @return this builder
+         */
+        public Builder maxIdleConnections(int maxIdleConnections) {
+            this.maxIdleConnections = maxIdleConnections;
+            return this;
+        }
+
+        /**
+         * @param keepAlive time an idle connection is kept in the pool, should exceed the polling interval
+         * @param unit time unit of the keep alive duration
+         * @return this builder
+         */
+        public Builder keepAlive(long keepAlive, TimeUnit unit) {
+            this.keepAliveMillis = unit.toMillis(keepAlive);
+            return this;
+        }
+
+        /**
+         * @param pingInterval interval of HTTP/2 pings keeping connections alive, 0 to disable
+         * @param unit time unit of the ping interval
+         * @return this builder
+         */
+        public Builder pingInterval(long pingInterval, TimeUnit unit) {
+            this.pingIntervalMillis = unit.toMillis(pingInterval);
+            return this;
+        }
+
+        /**
+         * @param maxRequests maximum number of concurrently executed asynchronous requests
+         * @return this builder
+         */
+        public Builder maxRequests(int maxRequests) {
+            this.maxRequests = maxRequests;
+            return this;
+        }
+
+        /**
+         * @param maxRequestsPerHost maximum number of concurrently executed asynchronous requests per host
+         * @return this builder
+         */
+        public Builder maxRequestsPerHost(int maxRequestsPerHost) {
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            return this;
+        }
+
+        /**
+         * @param maxEventStreams maximum number of concurrently opened event streams
+         * @return this builder
+         */
+        public Builder maxEventStreams(int maxEventStreams) {
+            this.maxEventStreams = maxEventStreams;
+            return this;
+        }
+
+        /**
+         * @param http2 prefer HTTP/2 over HTTP/1.1, if supported by the server
+         * @return this builder
+         */
+        public Builder http2(boolean http2) {
+            this.http2 = http2;
+            return this;
+        }
+
+        /**
+         * @param prewarm open a connection to the API as soon as the transport is built
+         * @return this builder
+         */
+        public Builder prewarm(boolean prewarm) {
+            this.prewarm = prewarm;
+            return this;
+        }
+
+        /**
+         * Build a transport, that is not shared with other clients.
+         *
+         * @return new transport
+         */
+        public HomeConnectTransport build() {
+            HomeConnectTransport transport = new HomeConnectTransport(this);
+            if (prewarm) {
+                transport.prewarm();
+            }
+            return transport;
+        }
+
+        /**
+         * Get the shared transport of the API base URL, built with these settings if none exists yet.
+         *
+         * @return shared transport
+         */
+        public HomeConnectTransport share() {
+            return transports.computeIfAbsent(apiUrl, url -> build());
+        }
+    }
+}
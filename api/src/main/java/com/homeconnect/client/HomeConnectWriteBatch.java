@@ -0,0 +1,295 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.homeconnect.client.exception.HomeConnectException;
+import com.homeconnect.client.model.Option;
+import com.homeconnect.data.Resource;
+
+/**
+ * Batch of writes to the home appliances of an account.
+ *
+ * Pending writes are grouped by appliance and only the last write of each key is sent. Options written to
+ * the same program are merged into one request. Per appliance, settings are written first, followed by the
+ * options of the selected program, the program start or stop and the options of the active program.
+ * Each write returns a future, that is completed once the request carrying it finished.
+ */
+@NonNullByDefault
+public class HomeConnectWriteBatch {
+
+    private static enum Target {
+        SETTING,
+        SELECTED_PROGRAM_OPTION,
+        PROGRAM,
+        ACTIVE_PROGRAM_OPTION;
+    }
+
+    private final HomeConnectApiClient client;
+
+    private final Map<String, Map<String, Write>> pending = new LinkedHashMap<>();
+
+    HomeConnectWriteBatch(HomeConnectApiClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Add the write of a resource, like {@link HomeConnectApiClient#set} would send it.
+     *
+     * @param haId home appliance id
+     * @param resource resource to write
+     * @param value value to write
+     * @param unit unit of the value
+     * @return future completed when the write was sent, exceptionally with the same exceptions as
+     *         {@link HomeConnectApiClient#set}
+     */
+    public CompletableFuture<Void> add(String haId, Resource resource, String value, @Nullable String unit) {
+        switch (resource.getType()) {
+        case SETTINGS:
+            return add(haId, new Write(Target.SETTING, resource.getKey(), resource, value, unit, false));
+        case PROGRAM_ACTIVE:
+            return add(haId, new Write(Target.PROGRAM, resource.getKey(), resource, value, unit, false));
+        case PROGRAM_AVAILABLE:
+        case PROGRAM_SELECTED:
+        case PROGRAM_ACTIVE_OPTIONS:
+        case STATUS:
+            return CompletableFuture.completedFuture(null);
+        default:
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(
+                    new UnsupportedOperationException("Wrong type configured for resource: " + resource));
+            return future;
+        }
+    }
+
+    /**
+     * Add the write of a program option, merged with the other options of the same program.
+     *
+     * @param haId home appliance id
+     * @param key option key
+     * @param value value to write
+     * @param unit unit of the value
+     * @param valueAsInt whether the value is sent as integer
+     * @param isProgramActive true for the active, false for the selected program
+     * @return future completed when the write was sent
+     */
+    public CompletableFuture<Void> addProgramOption(String haId, String key, String value, @Nullable String unit,
+            boolean valueAsInt, boolean isProgramActive) {
+        Target target = isProgramActive ? Target.ACTIVE_PROGRAM_OPTION : Target.SELECTED_PROGRAM_OPTION;
+        return add(haId, new Write(target, key, null, value, unit, valueAsInt));
+    }
+
+    /**
+     * Get the number of writes, that remain after deduplication.
+     *
+     * @return number of pending writes
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (Map<String, Write> writes : pending.values()) {
+            size += writes.size();
+        }
+        return size;
+    }
+
+    /**
+     * Send all pending writes on the calling thread. Failed writes do not stop the others, but complete
+     * their futures exceptionally.
+     */
+    public void execute() {
+        for (List<Call> calls : drain().values()) {
+            for (Call call : calls) {
+                try {
+                    call.sender.send();
+                    call.complete(null);
+                } catch (HomeConnectException | RuntimeException e) {
+                    call.complete(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Send all pending writes asynchronously. The requests of an appliance are sent one after the other,
+     * while the appliances are written concurrently.
+     *
+     * @return future completed when all writes finished, failed writes complete their own futures exceptionally
+     */
+    public CompletableFuture<Void> executeAsync() {
+        List<CompletableFuture<Void>> appliances = new ArrayList<>();
+        for (List<Call> calls : drain().values()) {
+            CompletableFuture<Void> appliance = CompletableFuture.completedFuture(null);
+            for (Call call : calls) {
+                appliance = appliance.thenCompose(ready -> call.sendAsync().handle((result, error) -> {
+                    call.complete(error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error);
+                    return null;
+                }));
+            }
+            appliances.add(appliance);
+        }
+        return CompletableFuture.allOf(appliances.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private synchronized CompletableFuture<Void> add(String haId, Write write) {
+        Map<String, Write> writes = pending.computeIfAbsent(haId, id -> new LinkedHashMap<>());
+        String key = write.target + " " + write.key;
+
+        CompletableFuture<Void> future = write.futures.get(0);
+
+        // The last write of a key replaces the previous ones, which are completed along with it
+        Write previous = writes.remove(key);
+        if (previous != null) {
+            write.futures.addAll(previous.futures);
+        }
+        writes.put(key, write);
+        return future;
+    }
+
+    private synchronized Map<String, List<Call>> drain() {
+        Map<String, List<Call>> calls = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, Write>> appliance : pending.entrySet()) {
+            calls.put(appliance.getKey(), createCalls(appliance.getKey(), appliance.getValue().values()));
+        }
+        pending.clear();
+        return calls;
+    }
+
+    private List<Call> createCalls(String haId, Collection<Write> writes) {
+        List<Call> calls = new ArrayList<>();
+        for (Target target : Target.values()) {
+            List<Write> group = new ArrayList<>();
+            for (Write write : writes) {
+                if (write.target == target) {
+                    group.add(write);
+                }
+            }
+            if (group.isEmpty()) {
+                continue;
+            }
+            switch (target) {
+            case SELECTED_PROGRAM_OPTION:
+            case ACTIVE_PROGRAM_OPTION:
+                boolean isProgramActive = target == Target.ACTIVE_PROGRAM_OPTION;
+                Map<Option, Boolean> options = new LinkedHashMap<>();
+                for (Write write : group) {
+                    options.put(new Option(write.key, write.value, write.unit), write.valueAsInt);
+                }
+                calls.add(new Call(group, () -> client.putProgramOptions(haId, options, isProgramActive),
+                        () -> client.putProgramOptionsAsync(haId, options, isProgramActive)));
+                break;
+            default:
+                for (Write write : group) {
+                    Resource resource = write.resource;
+                    if (resource == null) {
+                        continue;
+                    }
+                    List<Write> single = new ArrayList<>(1);
+                    single.add(write);
+                    calls.add(new Call(single, () -> client.set(haId, resource, write.value, write.unit),
+                            () -> client.setAsync(haId, resource, write.value, write.unit)));
+                }
+                break;
+            }
+        }
+        return calls;
+    }
+
+    @FunctionalInterface
+    private interface Sender {
+        void send() throws HomeConnectException;
+    }
+
+    private static class Write {
+
+        private final Target target;
+        private final String key;
+        private final @Nullable Resource resource;
+        private final String value;
+        private final @Nullable String unit;
+        private final boolean valueAsInt;
+
+        private final List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        private Write(Target target, String key, @Nullable Resource resource, String value, @Nullable String unit,
+                boolean valueAsInt) {
+            this.target = target;
+            this.key = key;
+            this.resource = resource;
+            this.value = value;
+            this.unit = unit;
+            this.valueAsInt = valueAsInt;
+            this.futures.add(new CompletableFuture<>());
+        }
+    }
+
+    /**
+     * One request, carrying one or several writes.
+     */
+    private static class Call {
+
+        private final List<Write> writes;
+        private final Sender sender;
+        private final Supplier<CompletableFuture<Void>> asyncSender;
+
+        private Call(List<Write> writes, Sender sender, Supplier<CompletableFuture<Void>> asyncSender) {
+            this.writes = writes;
+            this.sender = sender;
+            this.asyncSender = asyncSender;
+        }
+
+        /**
+         * Start the call, failing its future instead of throwing, so the calls queued behind it still run.
+         */
+        private CompletableFuture<Void> sendAsync() {
+            try {
+                return asyncSender.get();
+
+            } catch (RuntimeException e) {
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+                return future;
+            }
+        }
+
+        private void complete(@Nullable Throwable error) {
+            for (Write write : writes) {
+                for (CompletableFuture<Void> future : write.futures) {
+                    if (error != null) {
+                        future.completeExceptionally(error);
+                    } else {
+                        future.complete(null);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.homeconnect.client.exception.CommunicationException;
+import com.homeconnect.client.exception.HomeConnectException;
+
+/**
+ * Single-flight execution of identical requests.
+ *
+ * Concurrent callers of the same key share one in-flight call and its mapped result. Optionally, successful
+ * results are kept for a short time to serve callers, that arrive right after the call completed.
+ */
+@NonNullByDefault
+final class RequestCoalescer {
+
+    private final Map<String, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, CachedResult> results = new ConcurrentHashMap<>();
+
+    private volatile long resultTtlNanos = 0;
+
+    void setResultTtl(long ttl, TimeUnit unit) {
+        resultTtlNanos = unit.toNanos(ttl);
+        if (resultTtlNanos <= 0) {
+            results.clear();
+        }
+    }
+
+    /**
+     * Execute the loader on the calling thread, unless an identical call is already in flight.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T execute(String key, @Nullable String haId, Loader<T> loader) throws HomeConnectException {
+        CachedResult cached = getCachedResult(key);
+        if (cached != null) {
+            return (T) cached.value;
+        }
+        CompletableFuture<Object> call = new CompletableFuture<>();
+        CompletableFuture<?> existing = inFlight.putIfAbsent(key, call);
+        if (existing != null) {
+            return (T) await(existing);
+        }
+        try {
+            T result = loader.load();
+            cacheResult(key, haId, result);
+            call.complete(result);
+            return result;
+        } catch (HomeConnectException | RuntimeException e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, call);
+        }
+    }
+
+    /**
+     * Enqueue the call of the loader, unless an identical call is already in flight.
+     * Each caller gets a future of its own, so cancelling it does not affect the other callers.
+     */
+    @SuppressWarnings("unchecked")
+    <T> CompletableFuture<T> enqueue(String key, @Nullable String haId, Supplier<CompletableFuture<T>> loader) {
+        CachedResult cached = getCachedResult(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture((T) cached.value);
+        }
+        CompletableFuture<Object> call = new CompletableFuture<>();
+        CompletableFuture<?> existing = inFlight.putIfAbsent(key, call);
+        if (existing != null) {
+            return ((CompletableFuture<T>) existing).thenApply(result -> result);
+        }
+        CompletableFuture<T> loaded;
+        try {
+            loaded = loader.get();
+        } catch (RuntimeException e) {
+            // Never leave the call in flight, as all identical calls would wait for it
+            inFlight.remove(key, call);
+            call.completeExceptionally(e);
+            return ((CompletableFuture<T>) (CompletableFuture<?>) call).thenApply(result -> result);
+        }
+        loaded.whenComplete((result, error) -> {
+            inFlight.remove(key, call);
+            if (error != null) {
+                call.completeExceptionally(error);
+            } else {
+                cacheResult(key, haId, result);
+                call.complete(result);
+            }
+        });
+        return ((CompletableFuture<T>) (CompletableFuture<?>) call).thenApply(result -> result);
+    }
+
+    /**
+     * Drop the cached results of an appliance, e.g. after a command changed its state.
+     */
+    void invalidate(String haId) {
+        results.values().removeIf(result -> haId.equals(result.haId));
+    }
+
+    void clear() {
+        results.clear();
+    }
+
+    private @Nullable CachedResult getCachedResult(String key) {
+        CachedResult cached = results.get(key);
+        if (cached != null && System.nanoTime() - cached.expiry >= 0) {
+            results.remove(key, cached);
+            return null;
+        }
+        return cached;
+    }
+
+    private void cacheResult(String key, @Nullable String haId, @Nullable Object result) {
+        long ttl = resultTtlNanos;
+        if (ttl > 0 && result != null) {
+            results.put(key, new CachedResult(haId, result, System.nanoTime() + ttl));
+        }
+    }
+
+    private static Object await(CompletableFuture<?> call) throws HomeConnectException {
+        try {
+            return call.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommunicationException("Interrupted while waiting for coalesced request", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof HomeConnectException) {
+                throw (HomeConnectException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new CommunicationException("Coalesced request failed", cause != null ? cause : e);
+        }
+    }
+
+    @FunctionalInterface
+    interface Loader<T> {
+        T load() throws HomeConnectException;
+    }
+
+    private static class CachedResult {
+
+        private final @Nullable String haId;
+        private final Object value;
+        private final long expiry;
+
+        private CachedResult(@Nullable String haId, Object value, long expiry) {
+            this.haId = haId;
+            this.value = value;
+            this.expiry = expiry;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import okhttp3.CacheControl;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Conditional cache of slow changing resources, like the home appliances of an account and their programs.
+ *
+ * The validators and the mapped result of the last response are kept per URL. While an entry is fresh, it
+ * is served without sending a request. Once it went stale, the request is revalidated with
+ * {@code If-None-Match} or {@code If-Modified-Since}, and a {@code 304 Not Modified} response reuses the
+ * result without parsing a body. The freshness is taken from the {@code Cache-Control} header of the
+ * response, falling back to the configured max-age.
+ */
+@NonNullByDefault
+final class ResponseCache {
+
+    static final long DEFAULT_MAX_AGE = TimeUnit.MINUTES.toMillis(1);
+
+    private static final String ETAG = "ETag";
+    private static final String LAST_MODIFIED = "Last-Modified";
+    private static final String IF_NONE_MATCH = "If-None-Match";
+    private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private volatile boolean enabled = false;
+    private volatile long maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_AGE);
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            entries.clear();
+        }
+    }
+
+    void setMaxAge(long maxAge, TimeUnit unit) {
+        if (maxAge < 0) {
+            throw new IllegalArgumentException("Max age must not be negative: " + maxAge);
+        }
+        maxAgeNanos = unit.toNanos(maxAge);
+    }
+
+    @Nullable
+    Entry get(String url) {
+        return entries.get(url);
+    }
+
+    /**
+     * Add the validators of a stale entry to the request, to receive {@code 304 Not Modified} if unchanged.
+     */
+    static Request revalidate(Request request, @Nullable Entry entry) {
+        if (entry == null || !entry.isRevalidatable()) {
+            return request;
+        }
+        Request.Builder builder = request.newBuilder();
+        String etag = entry.etag;
+        if (etag != null) {
+            builder.header(IF_NONE_MATCH, etag);
+        }
+        String lastModified = entry.lastModified;
+        if (lastModified != null) {
+            builder.header(IF_MODIFIED_SINCE, lastModified);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Cache the mapped result of a full response.
+     */
+    void put(String url, @Nullable String haId, Response response, @Nullable Object value) {
+        CacheControl cacheControl = response.cacheControl();
+        if (!enabled || value == null || cacheControl.noStore()) {
+            entries.remove(url);
+            return;
+        }
+        entries.put(url, new Entry(haId, value, response.header(ETAG), response.header(LAST_MODIFIED),
+                getExpiry(cacheControl)));
+    }
+
+    /**
+     * Extend the freshness of an entry, after the server confirmed it with {@code 304 Not Modified}.
+     */
+    void refresh(String url, Entry entry, Response response) {
+        if (!enabled) {
+            return;
+        }
+        String etag = response.header(ETAG);
+        String lastModified = response.header(LAST_MODIFIED);
+        entries.replace(url, entry, new Entry(entry.haId, entry.value, etag != null ? etag : entry.etag,
+                lastModified != null ? lastModified : entry.lastModified, getExpiry(response.cacheControl())));
+    }
+
+    /**
+     * Drop the entries of an appliance, e.g. after a command changed its available programs.
+     */
+    void invalidate(String haId) {
+        entries.values().removeIf(entry -> haId.equals(entry.haId));
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    private long getExpiry(CacheControl cacheControl) {
+        long maxAge;
+        if (cacheControl.noCache()) {
+            maxAge = 0;
+        } else if (cacheControl.maxAgeSeconds() >= 0) {
+            maxAge = TimeUnit.SECONDS.toNanos(cacheControl.maxAgeSeconds());
+        } else {
+            maxAge = maxAgeNanos;
+        }
+        return System.nanoTime() + maxAge;
+    }
+
+    static final class Entry {
+
+        private final @Nullable String haId;
+        private final Object value;
+        private final @Nullable String etag;
+        private final @Nullable String lastModified;
+        private final long expiry;
+
+        private Entry(@Nullable String haId, Object value, @Nullable String etag, @Nullable String lastModified,
+                long expiry) {
+            this.haId = haId;
+            this.value = value;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expiry = expiry;
+        }
+
+        Object getValue() {
+            return value;
+        }
+
+        boolean isFresh() {
+            return System.nanoTime() - expiry < 0;
+        }
+
+        boolean isRevalidatable() {
+            return etag != null || lastModified != null;
+        }
+    }
+}
@@ -0,0 +1,527 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client.history;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.CountingInputStream;
+
+import okio.Buffer;
+
+/**
+ * Persistent log of the API requests, in a compact binary format.
+ *
+ * Each request is stored as its time, method, path, status code, latency and the CRC32 of the response body.
+ * The start of the body is kept as excerpt of failed requests. Paths are written once per file and referenced
+ * by their id afterwards. Requests are written by a background thread, so callers never wait for the file.
+ * If the log falls behind, further requests are dropped and counted.
+ *
+ * An existing file is continued, after its path table was rebuilt and an incomplete last record was cut off.
+ * The log is bounded by rolling the file over to a single backup, once it exceeds half the maximum size.
+ */
+@NonNullByDefault
+public class ApiRequestLog implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ApiRequestLog.class);
+
+    public static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_EXCERPT_LENGTH = 256;
+
+    private static final int MAGIC = 0x4843524c; // HCRL
+    private static final int VERSION = 1;
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final String BACKUP_SUFFIX = ".1";
+
+    private static final byte RECORD_PATH = 1;
+    private static final byte RECORD_REQUEST = 2;
+
+    private static final String[] METHODS = { "GET", "PUT", "POST", "DELETE", "HEAD", "PATCH" };
+
+    private final Path file;
+    private final long maxSize;
+    private final int excerptLength;
+
+    private final BlockingQueue<Pending> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread appender;
+
+    // Only accessed by the appender thread
+    private final Map<String, Integer> paths = new HashMap<>();
+    private @Nullable DataOutputStream output;
+    private long offset;
+    private long size;
+
+    private volatile boolean running = true;
+
+    public ApiRequestLog(Path file) throws IOException {
+        this(file, DEFAULT_MAX_SIZE, DEFAULT_EXCERPT_LENGTH);
+    }
+
+    /**
+     * Open the log, appending to an existing file.
+     *
+     * @param file log file, rolled over to a backup file with the suffix .1
+     * @param maxSize maximum size of the log file and its backup in bytes
+     * @param excerptLength number of bytes of the response body kept of failed requests
+     * @throws IOException if the file can not be opened
+     */
+    public ApiRequestLog(Path file, long maxSize, int excerptLength) throws IOException {
+        this.file = file;
+        this.maxSize = maxSize;
+        this.excerptLength = excerptLength;
+
+        Path directory = file.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        if (Files.exists(file)) {
+            resume();
+        } else {
+            open();
+        }
+
+        appender = new Thread(this::append, "homeconnect-request-log");
+        appender.setDaemon(true);
+        appender.start();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Get the number of requests, that were dropped because the log fell behind.
+     *
+     * @return number of dropped requests
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Queue a request to be logged, without waiting for the file.
+     *
+     * @param timestamp time the request was sent in ms since the epoch
+     * @param method HTTP method
+     * @param path encoded path of the URL
+     * @param status HTTP status code or 0 if no response was received
+     * @param latency time until the response was received in ms
+     * @param body response body, not consumed
+     */
+    public void append(long timestamp, String method, String path, int status, long latency, @Nullable Buffer body) {
+        if (!running || !queue.offer(new Pending(timestamp, method, path, status, latency,
+                body != null ? body.clone() : null))) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Read the logged requests of the backup and the current file.
+     *
+     * @param consumer consumer of the requests, oldest first
+     * @throws IOException if the files can not be read
+     */
+    public void replay(Consumer<Entry> consumer) throws IOException {
+        Path backup = getBackupFile();
+        if (Files.exists(backup)) {
+            read(backup, consumer);
+        }
+        if (Files.exists(file)) {
+            read(file, consumer);
+        }
+    }
+
+    /**
+     * Stream the requests of a log file, e.g. for post-mortem analysis. Records interrupted by a crash are skipped.
+     *
+     * @param file log file
+     * @param consumer consumer of the requests, oldest first
+     * @throws IOException if the file can not be read or is no request log
+     */
+    public static void read(Path file, Consumer<Entry> consumer) throws IOException {
+        scan(file, new ArrayList<>(), consumer);
+    }
+
+    /**
+     * Read the records of a log file.
+     *
+     * @param paths paths of the file, filled in order of their ids
+     * @param consumer consumer of the requests or null to only read the paths
+     * @return length of the header and all complete records in bytes
+     */
+    private static long scan(Path file, List<String> paths, @Nullable Consumer<Entry> consumer)
+            throws IOException {
+        long length = 0;
+        CountingInputStream counter = new CountingInputStream(
+                new BufferedInputStream(Files.newInputStream(file, StandardOpenOption.READ)));
+        try (DataInputStream input = new DataInputStream(counter)) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Invalid request log file: " + file);
+            }
+            length = counter.getCount();
+            while (true) {
+                int type = input.read();
+                if (type < 0) {
+                    break;
+                }
+                if (type == RECORD_PATH) {
+                    paths.add(input.readUTF());
+                } else if (type == RECORD_REQUEST) {
+                    long timestamp = input.readLong();
+                    int method = input.readUnsignedByte();
+                    int path = (int) readVarLong(input);
+                    int status = input.readUnsignedShort();
+                    long latency = readVarLong(input);
+                    int bodyHash = input.readInt();
+                    byte[] excerpt = new byte[(int) readVarLong(input)];
+                    input.readFully(excerpt);
+
+                    if (path >= paths.size()) {
+                        throw new IOException("Invalid path id in request log: " + path);
+                    }
+                    if (consumer != null) {
+                        consumer.accept(new Entry(timestamp, method < METHODS.length ? METHODS[method] : "UNKNOWN",
+                                paths.get(path), status, latency, bodyHash,
+                                excerpt.length > 0 ? new String(excerpt, StandardCharsets.UTF_8) : null));
+                    }
+                } else {
+                    throw new IOException("Invalid record type in request log: " + type);
+                }
+                length = counter.getCount();
+            }
+        } catch (EOFException e) {
+            logger.debug("Request log {} ends with an incomplete record", file);
+        }
+        return length;
+    }
+
+    /**
+     * Stop the background appender, after the queued requests are written.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            appender.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void append() {
+        List<Pending> batch = new ArrayList<>();
+        try {
+            while (running || !queue.isEmpty()) {
+                Pending pending;
+                try {
+                    // Not interrupted on close, as an interrupt would close the file channel while writing
+                    pending = queue.poll(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    pending = queue.poll();
+                }
+                if (pending == null) {
+                    continue;
+                }
+                batch.add(pending);
+                queue.drainTo(batch);
+                for (Pending request : batch) {
+                    write(request);
+                }
+                batch.clear();
+
+                DataOutputStream output = this.output;
+                if (output != null) {
+                    output.flush();
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Stopped writing request log {}: {}", file, e.getMessage());
+            running = false;
+        } finally {
+            DataOutputStream output = this.output;
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    logger.debug("Failed to close request log {}: {}", file, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void write(Pending request) throws IOException {
+        if (size >= maxSize / 2) {
+            DataOutputStream output = this.output;
+            if (output != null) {
+                output.close();
+            }
+            rollOver();
+            open();
+        }
+        DataOutputStream output = this.output;
+        if (output == null) {
+            throw new IOException("Request log closed");
+        }
+        Integer path = paths.get(request.path);
+        if (path == null) {
+            path = paths.size();
+            paths.put(request.path, path);
+            output.writeByte(RECORD_PATH);
+            output.writeUTF(request.path);
+        }
+        int method = METHODS.length;
+        for (int i = 0; i < METHODS.length; i++) {
+            if (METHODS[i].equals(request.method)) {
+                method = i;
+                break;
+            }
+        }
+        byte[] excerpt = new byte[0];
+        int bodyHash = 0;
+        Buffer body = request.body;
+        if (body != null && body.size() > 0) {
+            int length = request.status >= 400 ? (int) Math.min(excerptLength, body.size()) : 0;
+            excerpt = new byte[length];
+            bodyHash = hash(body.inputStream(), excerpt);
+        }
+        output.writeByte(RECORD_REQUEST);
+        output.writeLong(request.timestamp);
+        output.writeByte(method);
+        writeVarLong(output, path);
+        output.writeShort(request.status);
+        writeVarLong(output, Math.max(0, request.latency));
+        output.writeInt(bodyHash);
+        writeVarLong(output, excerpt.length);
+        output.write(excerpt);
+
+        size = offset + output.size();
+    }
+
+    private void open() throws IOException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)));
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        paths.clear();
+        offset = 0;
+        size = output.size();
+        this.output = output;
+    }
+
+    /**
+     * Continue the existing file, rebuilding its path ids and cutting off an incomplete last record.
+     */
+    private void resume() throws IOException {
+        List<String> paths = new ArrayList<>();
+        long length;
+        try {
+            length = scan(file, paths, null);
+        } catch (IOException e) {
+            logger.warn("Unable to continue request log {}, moving it to the backup: {}", file, e.getMessage());
+            rollOver();
+            open();
+            return;
+        }
+        if (length == 0) {
+            // Not even the header was written completely
+            Files.delete(file);
+            open();
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        }
+        this.paths.clear();
+        for (String path : paths) {
+            this.paths.put(path, this.paths.size());
+        }
+        offset = length;
+        size = length;
+        output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)));
+    }
+
+    private void rollOver() throws IOException {
+        Files.move(file, getBackupFile(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path getBackupFile() {
+        return file.resolveSibling(file.getFileName() + BACKUP_SUFFIX);
+    }
+
+    /**
+     * Compute the CRC32 of the body, filling the excerpt with its start.
+     */
+    private static int hash(InputStream body, byte[] excerpt) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[8192];
+        int offset = 0;
+        int read;
+        while ((read = body.read(chunk)) > 0) {
+            crc.update(chunk, 0, read);
+            if (offset < excerpt.length) {
+                int length = Math.min(read, excerpt.length - offset);
+                System.arraycopy(chunk, 0, excerpt, offset, length);
+                offset += length;
+            }
+        }
+        return (int) crc.getValue();
+    }
+
+    private static void writeVarLong(DataOutputStream output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid variable length integer in request log");
+    }
+
+    private static class Pending {
+
+        private final long timestamp;
+        private final String method;
+        private final String path;
+        private final int status;
+        private final long latency;
+        private final @Nullable Buffer body;
+
+        private Pending(long timestamp, String method, String path, int status, long latency,
+                @Nullable Buffer body) {
+            this.timestamp = timestamp;
+            this.method = method;
+            this.path = path;
+            this.status = status;
+            this.latency = latency;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Logged API request.
+     */
+    public static class Entry {
+
+        private final long timestamp;
+        private final String method;
+        private final String path;
+        private final int status;
+        private final long latency;
+        private final int bodyHash;
+        private final @Nullable String excerpt;
+
+        private Entry(long timestamp, String method, String path, int status, long latency, int bodyHash,
+                @Nullable String excerpt) {
+            this.timestamp = timestamp;
+            this.method = method;
+            this.path = path;
+            this.status = status;
+            this.latency = latency;
+            this.bodyHash = bodyHash;
+            this.excerpt = excerpt;
+        }
+
+        public Instant getTime() {
+            return Instant.ofEpochMilli(timestamp);
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return HTTP status code or 0 if no response was received
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return time until the response was received in ms
+         */
+        public long getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return CRC32 of the response body or 0 if the body was empty
+         */
+        public int getBodyHash() {
+            return bodyHash;
+        }
+
+        /**
+         * @return start of the response body of failed requests
+         */
+        public @Nullable String getExcerpt() {
+            return excerpt;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry [time=" + getTime() + ", method=" + method + ", path=" + path + ", status=" + status
+                    + ", latency=" + latency + ", bodyHash=" + Integer.toHexString(bodyHash) + "]";
+        }
+    }
+}
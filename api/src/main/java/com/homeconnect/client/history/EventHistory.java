@@ -0,0 +1,263 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client.history;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import com.homeconnect.client.model.Event;
+import com.homeconnect.client.model.EventType;
+
+/**
+ * History of received events, bounded per home appliance.
+ *
+ * Each appliance keeps its own latest events, so a busy appliance can not evict the history of the others,
+ * and the latest event of each key, regardless of the capacity of the history. Events are recorded in lock-free
+ * {@link RingBuffer}s, so the threads reading the event streams never contend with each other or with readers.
+ */
+@NonNullByDefault
+public class EventHistory {
+
+    public static final int DEFAULT_CAPACITY = 50;
+
+    private final Map<String, ApplianceHistory> appliances = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private volatile int capacity;
+    private volatile @Nullable EventJournal journal;
+
+    public EventHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity maximum number of events kept per appliance
+     */
+    public EventHistory(int capacity) {
+        setCapacity(capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Set the maximum number of events kept per appliance. Surplus events are dropped with the next added event.
+     *
+     * @param capacity maximum number of events per appliance
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid history capacity: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    public @Nullable EventJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Persist the added events in a journal. The history is rebuilt from the events already journaled, so the
+     * latest state of the appliances is available after a restart, without requesting it from the cloud.
+     *
+     * @param journal event journal or null to only keep the history in memory
+     * @throws IOException if the journaled events can not be read
+     */
+    public void setJournal(@Nullable EventJournal journal) throws IOException {
+        this.journal = null;
+        if (journal != null) {
+            journal.replay(this::add);
+            this.journal = journal;
+        }
+    }
+
+    /**
+     * Add a received event. Keep alive events carry no state and are skipped, so they neither evict the events
+     * of a quiet appliance, nor fill the journal.
+     *
+     * @param event received event
+     */
+    public void add(Event event) {
+        if (event.getType() == EventType.KEEP_ALIVE) {
+            return;
+        }
+        EventJournal journal = this.journal;
+        if (journal != null) {
+            journal.append(event);
+        }
+        int capacity = this.capacity;
+        appliances.computeIfAbsent(event.getHaId(), haId -> new ApplianceHistory(capacity)).add(event,
+                sequence.incrementAndGet(), capacity);
+    }
+
+    public void addAll(Collection<Event> events) {
+        events.forEach(this::add);
+    }
+
+    /**
+     * Get the events of all appliances, in the order they were received.
+     *
+     * @return copy of the events
+     */
+    public List<Event> getEvents() {
+        List<Entry> entries = new ArrayList<>();
+        for (ApplianceHistory appliance : appliances.values()) {
+            appliance.copyEntries(entries);
+        }
+        entries.sort(Comparator.comparingLong(entry -> entry.sequence));
+
+        List<Event> events = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            events.add(entry.event);
+        }
+        return events;
+    }
+
+    /**
+     * Get the events of an appliance, in the order they were received.
+     *
+     * @param haId home appliance id
+     * @return copy of the events
+     */
+    public List<Event> getEvents(String haId) {
+        ApplianceHistory appliance = appliances.get(haId);
+        if (appliance == null) {
+            return Collections.emptyList();
+        }
+        return appliance.getEvents();
+    }
+
+    /**
+     * Get the latest event of a key.
+     *
+     * @param haId home appliance id
+     * @param key event key, e.g. BSH.Common.Status.OperationState
+     * @return latest event or null if none was received
+     */
+    public @Nullable Event getLatestEvent(String haId, String key) {
+        ApplianceHistory appliance = appliances.get(haId);
+        return appliance != null ? appliance.latest.get(key) : null;
+    }
+
+    /**
+     * Get the latest events of all keys of an appliance.
+     *
+     * @param haId home appliance id
+     * @return copy of the latest events by key
+     */
+    public Map<String, Event> getLatestEvents(String haId) {
+        ApplianceHistory appliance = appliances.get(haId);
+        return appliance != null ? new HashMap<>(appliance.latest) : Collections.emptyMap();
+    }
+
+    public int size() {
+        int size = 0;
+        for (ApplianceHistory appliance : appliances.values()) {
+            size += appliance.size();
+        }
+        return size;
+    }
+
+    public void clear(String haId) {
+        appliances.remove(haId);
+    }
+
+    public void clear() {
+        appliances.clear();
+    }
+
+    private static class Entry {
+
+        private final long sequence;
+        private final Event event;
+
+        private Entry(long sequence, Event event) {
+            this.sequence = sequence;
+            this.event = event;
+        }
+    }
+
+    private static class ApplianceHistory {
+
+        private final AtomicReference<RingBuffer<Entry>> events;
+        private final Map<String, Event> latest = new ConcurrentHashMap<>();
+
+        private ApplianceHistory(int capacity) {
+            events = new AtomicReference<>(new RingBuffer<>(capacity));
+        }
+
+        private void add(Event event, long sequence, int capacity) {
+            getEvents(capacity).add(new Entry(sequence, event));
+
+            String key = event.getKey();
+            if (key != null) {
+                latest.put(key, event);
+            }
+        }
+
+        /**
+         * Get the ring buffer of the events, replaced by one with the latest events if the capacity changed.
+         */
+        private RingBuffer<Entry> getEvents(int capacity) {
+            RingBuffer<Entry> events = this.events.get();
+            while (events.getCapacity() != capacity) {
+                RingBuffer<Entry> resized = new RingBuffer<>(capacity);
+                List<Entry> entries = events.snapshot();
+                entries.subList(0, Math.max(0, entries.size() - capacity)).clear();
+                entries.forEach(resized::add);
+                if (this.events.compareAndSet(events, resized)) {
+                    return resized;
+                }
+                events = this.events.get();
+            }
+            return events;
+        }
+
+        private int size() {
+            return events.get().size();
+        }
+
+        private void copyEntries(List<Entry> entries) {
+            entries.addAll(events.get().snapshot());
+        }
+
+        private List<Event> getEvents() {
+            List<Entry> entries = events.get().snapshot();
+            List<Event> result = new ArrayList<>(entries.size());
+            for (Entry entry : entries) {
+                result.add(entry.event);
+            }
+            return result;
+        }
+    }
+}
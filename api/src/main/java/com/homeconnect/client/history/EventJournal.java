@@ -0,0 +1,620 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client.history;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.homeconnect.client.model.Event;
+import com.homeconnect.client.model.EventHandling;
+import com.homeconnect.client.model.EventLevel;
+import com.homeconnect.client.model.EventType;
+import com.homeconnect.client.model.TypedValue;
+
+/**
+ * Persistent, append-only journal of received events.
+ *
+ * Events are written in a compact binary format to memory-mapped segment files, named by the time of their
+ * first record. A segment is rolled, when it is full or older than the segment duration, and the oldest segments
+ * are deleted to keep the journal within its size and age limits.
+ *
+ * Each segment starts with a magic number and a format version, followed by the records. A record consists of
+ * its length, the time it was journaled and the event, with variable length integers and UTF-8 strings. Its
+ * length is written last, so a record interrupted by a crash reads as the end of the segment.
+ *
+ * Events are written by a background appender, so the threads reading the event streams never wait for a segment
+ * to be rolled or forced to the storage device.
+ */
+@NonNullByDefault
+public class EventJournal implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventJournal.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    public static final long DEFAULT_SEGMENT_DURATION = TimeUnit.DAYS.toMillis(1);
+    public static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+    public static final long DEFAULT_MAX_AGE = TimeUnit.DAYS.toMillis(30);
+
+    private static final String SUFFIX = ".journal";
+    private static final int MAGIC = 0x48434a4c; // HCJL
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 12;
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long segmentDuration;
+    private final long maxSize;
+    private final long maxAge;
+
+    private final List<Segment> segments = new ArrayList<>();
+
+    // Positioned through Buffer, as the covariant ByteBuffer overrides of newer JDKs are missing on Java 8
+    private final ByteBuffer record;
+
+    private final BlockingQueue<Pending> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread appender;
+
+    private @Nullable Segment current;
+    private boolean closed = false;
+
+    private volatile boolean running = true;
+
+    public EventJournal(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_SEGMENT_DURATION, DEFAULT_MAX_SIZE, DEFAULT_MAX_AGE);
+    }
+
+    /**
+     * Open the journal in a directory, continuing the latest segment if possible.
+     *
+     * @param directory directory of the segment files
+     * @param segmentSize size of a segment file in bytes
+     * @param segmentDuration time in ms, after which a segment is rolled
+     * @param maxSize maximum size of all segments in bytes
+     * @param maxAge time in ms, after which events are deleted
+     * @throws IOException if the directory or the latest segment can not be opened
+     */
+    public EventJournal(Path directory, int segmentSize, long segmentDuration, long maxSize, long maxAge)
+            throws IOException {
+        if (segmentSize <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.segmentDuration = segmentDuration;
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+        this.record = ByteBuffer.allocate(segmentSize - HEADER_SIZE);
+
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.add(new Segment(file, Long.parseLong(name.substring(0, name.length() - SUFFIX.length()))));
+                } catch (NumberFormatException e) {
+                    logger.debug("Ignoring unknown file in event journal: {}", file);
+                }
+            }
+        }
+        segments.sort((a, b) -> Long.compare(a.start, b.start));
+
+        if (!segments.isEmpty()) {
+            Segment latest = segments.get(segments.size() - 1);
+            if (System.currentTimeMillis() - latest.start < segmentDuration && Files.size(latest.path) == segmentSize) {
+                latest.open();
+                current = latest;
+            }
+        }
+        applyRetention();
+
+        appender = new Thread(this::append, "homeconnect-event-journal");
+        appender.setDaemon(true);
+        appender.start();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get the number of events, that were dropped because the journal fell behind.
+     *
+     * @return number of dropped events
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Queue an event to be journaled, without waiting for the segment files.
+     *
+     * @param event event to journal
+     */
+    public void append(Event event) {
+        if (!running || !queue.offer(new Pending(System.currentTimeMillis(), event))) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private synchronized void write(long timestamp, Event event) throws IOException {
+        if (closed) {
+            throw new IOException("Event journal closed");
+        }
+        ((Buffer) record).clear();
+        try {
+            encode(event, record);
+        } catch (BufferOverflowException e) {
+            throw new IOException("Event exceeds journal segment size: " + event);
+        }
+        ((Buffer) record).flip();
+        if (RECORD_HEADER_SIZE + record.remaining() > segmentSize - HEADER_SIZE) {
+            throw new IOException("Event exceeds journal segment size: " + event);
+        }
+
+        Segment segment = current;
+        if (segment == null || segment.remaining() < RECORD_HEADER_SIZE + record.remaining()
+                || timestamp - segment.start >= segmentDuration) {
+            segment = roll(timestamp);
+        }
+        segment.write(timestamp, record);
+    }
+
+    /**
+     * Replay all journaled events.
+     *
+     * @param consumer consumer of the events, oldest first
+     * @throws IOException if a segment can not be read
+     */
+    public void replay(Consumer<Event> consumer) throws IOException {
+        replay(null, Instant.EPOCH, Instant.ofEpochMilli(Long.MAX_VALUE), consumer);
+    }
+
+    /**
+     * Replay the journaled events of an appliance in a time range.
+     *
+     * @param haId home appliance id or null for the events of all appliances
+     * @param from start of the time range, inclusive
+     * @param to end of the time range, exclusive
+     * @param consumer consumer of the events, oldest first
+     * @throws IOException if a segment can not be read
+     */
+    public void replay(@Nullable String haId, Instant from, Instant to, Consumer<Event> consumer)
+            throws IOException {
+        long start = from.toEpochMilli();
+        long end = to.toEpochMilli();
+
+        List<Segment> segments;
+        synchronized (this) {
+            segments = new ArrayList<>(this.segments);
+        }
+        byte[] filter = haId != null ? haId.getBytes(StandardCharsets.UTF_8) : null;
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            if (segment.start >= end || i + 1 < segments.size() && segments.get(i + 1).start <= start) {
+                continue;
+            }
+            ByteBuffer buffer = segment.read();
+            if (buffer == null) {
+                continue;
+            }
+            replay(segment, buffer, filter, start, end, consumer);
+        }
+    }
+
+    /**
+     * Read the journaled events of an appliance in a time range.
+     *
+     * @param haId home appliance id or null for the events of all appliances
+     * @param from start of the time range, inclusive
+     * @param to end of the time range, exclusive
+     * @return the events, oldest first
+     * @throws IOException if a segment can not be read
+     */
+    public List<Event> read(@Nullable String haId, Instant from, Instant to) throws IOException {
+        List<Event> events = new ArrayList<>();
+        replay(haId, from, to, events::add);
+        return events;
+    }
+
+    /**
+     * Write the current segment to the storage device.
+     */
+    public synchronized void flush() {
+        Segment current = this.current;
+        if (current != null) {
+            current.force();
+        }
+    }
+
+    /**
+     * Stop the background appender, after the queued events are written, and write the current segment to the
+     * storage device.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            appender.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            flush();
+            current = null;
+            closed = true;
+        }
+    }
+
+    private void append() {
+        while (running || !queue.isEmpty()) {
+            Pending pending;
+            try {
+                // Not interrupted on close, as an interrupt would close the mapped file channel while writing
+                pending = queue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                pending = queue.poll();
+            }
+            if (pending == null) {
+                continue;
+            }
+            try {
+                write(pending.timestamp, pending.event);
+            } catch (IOException e) {
+                logger.warn("Unable to journal event of appliance {}: {}", pending.event.getHaId(), e.getMessage());
+            }
+        }
+    }
+
+    private static void replay(Segment segment, ByteBuffer buffer, byte @Nullable [] haId, long start, long end,
+            Consumer<Event> consumer) {
+        try {
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                int length = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining() - 8) {
+                    break;
+                }
+                long timestamp = buffer.getLong();
+                int next = buffer.position() + length;
+                if (timestamp >= start && timestamp < end && (haId == null || matches(buffer, haId))) {
+                    consumer.accept(decode(buffer));
+                }
+                ((Buffer) buffer).position(next);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            logger.warn("Corrupt record in event journal segment {}: {}", segment.path, e.getMessage());
+        }
+    }
+
+    private Segment roll(long timestamp) throws IOException {
+        Segment current = this.current;
+        if (current != null) {
+            current.force();
+            current.close();
+        }
+        long start = timestamp;
+        if (!segments.isEmpty()) {
+            start = Math.max(start, segments.get(segments.size() - 1).start + 1);
+        }
+        Segment segment = new Segment(directory.resolve(String.format("%020d", start) + SUFFIX), start);
+        segment.create();
+        segments.add(segment);
+        this.current = segment;
+
+        applyRetention();
+        return segment;
+    }
+
+    private void applyRetention() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        long expiry = System.currentTimeMillis() - maxAge;
+        while (segments.size() > 1) {
+            Segment oldest = segments.get(0);
+            // A segment expires with its last event, that is older than the start of the next segment
+            if (size <= maxSize && segments.get(1).start > expiry) {
+                break;
+            }
+            size -= oldest.size();
+            segments.remove(0);
+            try {
+                Files.deleteIfExists(oldest.path);
+                logger.debug("Deleted event journal segment {}", oldest.path);
+            } catch (IOException e) {
+                logger.warn("Unable to delete event journal segment {}: {}", oldest.path, e.getMessage());
+            }
+        }
+    }
+
+    private static void encode(Event event, ByteBuffer buffer) {
+        putString(buffer, event.getHaId());
+        buffer.put((byte) event.getType().ordinal());
+        putString(buffer, event.getKey());
+
+        TypedValue value = event.getTypedValue();
+        buffer.put((byte) value.getKind().ordinal());
+        putString(buffer, value.getText());
+        putString(buffer, event.getUnit());
+        putString(buffer, event.getName());
+        putString(buffer, event.getUri());
+
+        EventLevel level = event.getLevel();
+        buffer.put((byte) (level != null ? level.ordinal() + 1 : 0));
+        EventHandling handling = event.getHandling();
+        buffer.put((byte) (handling != null ? handling.ordinal() + 1 : 0));
+        ZonedDateTime creation = event.getCreation();
+        putVarLong(buffer, creation != null ? creation.toEpochSecond() + 1 : 0);
+    }
+
+    private static Event decode(ByteBuffer buffer) {
+        String haId = getString(buffer);
+        if (haId == null) {
+            throw new IllegalArgumentException("Missing appliance id");
+        }
+        EventType type = EventType.values()[buffer.get()];
+        String key = getString(buffer);
+
+        TypedValue.Kind kind = TypedValue.Kind.values()[buffer.get()];
+        String text = getString(buffer);
+        String unit = getString(buffer);
+        String name = getString(buffer);
+        String uri = getString(buffer);
+
+        int level = buffer.get();
+        int handling = buffer.get();
+        long creation = getVarLong(buffer);
+
+        return new Event(haId, type, key, name, uri,
+                creation > 0 ? ZonedDateTime.ofInstant(Instant.ofEpochSecond(creation - 1), ZoneId.systemDefault())
+                        : null,
+                level > 0 ? EventLevel.values()[level - 1] : null,
+                handling > 0 ? EventHandling.values()[handling - 1] : null, toValue(kind, text), unit);
+    }
+
+    private static TypedValue toValue(TypedValue.Kind kind, @Nullable String text) {
+        if (text == null) {
+            return TypedValue.NULL;
+        }
+        switch (kind) {
+        case BOOLEAN:
+            return TypedValue.ofBoolean(Boolean.parseBoolean(text));
+        case LONG:
+        case DOUBLE:
+            return TypedValue.ofNumber(text);
+        case STRING:
+            return TypedValue.ofString(text);
+        default:
+            return TypedValue.NULL;
+        }
+    }
+
+    /**
+     * Compare the appliance id, the first field of the record, without decoding the event.
+     */
+    private static boolean matches(ByteBuffer buffer, byte[] haId) {
+        int position = buffer.position();
+        try {
+            long length = getVarLong(buffer) - 1;
+            if (length != haId.length) {
+                return false;
+            }
+            for (byte b : haId) {
+                if (buffer.get() != b) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            ((Buffer) buffer).position(position);
+        }
+    }
+
+    private static void putString(ByteBuffer buffer, @Nullable String value) {
+        if (value == null) {
+            putVarLong(buffer, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putVarLong(buffer, bytes.length + 1);
+        buffer.put(bytes);
+    }
+
+    private static @Nullable String getString(ByteBuffer buffer) {
+        long length = getVarLong(buffer) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Invalid variable length integer");
+    }
+
+    private static class Pending {
+
+        private final long timestamp;
+        private final Event event;
+
+        private Pending(long timestamp, Event event) {
+            this.timestamp = timestamp;
+            this.event = event;
+        }
+    }
+
+    private class Segment {
+
+        private final Path path;
+        private final long start;
+
+        private @Nullable MappedByteBuffer buffer;
+
+        private Segment(Path path, long start) {
+            this.path = path;
+            this.start = start;
+        }
+
+        private void create() throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+                buffer.putInt(MAGIC);
+                buffer.putInt(VERSION);
+                this.buffer = buffer;
+            }
+        }
+
+        /**
+         * Map the segment for appending, positioned after its last complete record.
+         */
+        private void open() throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+                if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                    throw new IOException("Invalid event journal segment: " + path);
+                }
+                while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                    int length = buffer.getInt(buffer.position());
+                    if (length <= 0 || length > buffer.remaining() - RECORD_HEADER_SIZE) {
+                        break;
+                    }
+                    ((Buffer) buffer).position(buffer.position() + RECORD_HEADER_SIZE + length);
+                }
+                this.buffer = buffer;
+            }
+        }
+
+        private int remaining() {
+            MappedByteBuffer buffer = this.buffer;
+            return buffer != null ? buffer.remaining() : 0;
+        }
+
+        private long size() {
+            try {
+                return Files.size(path);
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+
+        private void write(long timestamp, ByteBuffer record) throws IOException {
+            MappedByteBuffer buffer = this.buffer;
+            if (buffer == null) {
+                throw new IOException("Event journal segment closed: " + path);
+            }
+            int position = buffer.position();
+            int length = record.remaining();
+            ((Buffer) buffer).position(position + 4);
+            buffer.putLong(timestamp);
+            buffer.put(record);
+            buffer.putInt(position, length);
+        }
+
+        /**
+         * Get the records of the segment, limited to those completely written if the segment is still appended to.
+         */
+        private @Nullable ByteBuffer read() throws IOException {
+            synchronized (EventJournal.this) {
+                MappedByteBuffer buffer = this.buffer;
+                if (buffer != null) {
+                    ByteBuffer records = buffer.duplicate();
+                    ((Buffer) records).limit(buffer.position());
+                    ((Buffer) records).position(HEADER_SIZE);
+                    return records.slice();
+                }
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (records.remaining() < HEADER_SIZE || records.getInt() != MAGIC || records.getInt() != VERSION) {
+                    logger.warn("Skipping invalid event journal segment: {}", path);
+                    return null;
+                }
+                return records.slice();
+
+            } catch (NoSuchFileException e) {
+                // Deleted by the retention in the meantime
+                return null;
+            }
+        }
+
+        private void force() {
+            MappedByteBuffer buffer = this.buffer;
+            if (buffer != null) {
+                buffer.force();
+            }
+        }
+
+        private void close() {
+            buffer = null;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client.history;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Lock-free ring buffer of the latest elements, written by any number of threads.
+ *
+ * Producers claim a sequence number and publish the element in its slot, overwriting the oldest one, without
+ * ever waiting for other producers or readers. Readers get snapshots or cursors, that only return elements
+ * published completely in the order of their sequence, and skip elements overwritten while reading.
+ *
+ * @param <T> type of the elements
+ */
+@NonNullByDefault
+public class RingBuffer<T> {
+
+    private final AtomicReferenceArray<@Nullable Slot<T>> slots;
+    private final int capacity;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong floor = new AtomicLong();
+
+    public RingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid ring buffer capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Add an element, overwriting the oldest one if the buffer is full.
+     *
+     * @param value element to add
+     * @return sequence number of the element
+     */
+    public long add(T value) {
+        long sequence = this.sequence.getAndIncrement();
+        Slot<T> slot = new Slot<>(sequence, value);
+        int index = index(sequence);
+        while (true) {
+            Slot<T> current = slots.get(index);
+            if (current != null && current.sequence > sequence) {
+                // Lapped by faster producers, the element is already outdated
+                return sequence;
+            }
+            if (slots.compareAndSet(index, current, slot)) {
+                return sequence;
+            }
+        }
+    }
+
+    /**
+     * Get the number of elements, that were added and are not yet overwritten or cleared.
+     *
+     * @return number of elements
+     */
+    public int size() {
+        long sequence = this.sequence.get();
+        return (int) Math.min(capacity, sequence - Math.min(sequence, floor.get()));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Get a snapshot of the elements, oldest first.
+     *
+     * @return copy of the elements
+     */
+    public List<T> snapshot() {
+        long end = sequence.get();
+        long start = Math.max(floor.get(), end - capacity);
+        List<T> result = new ArrayList<>((int) Math.max(0, end - start));
+        for (long i = start; i < end; i++) {
+            Slot<T> slot = slots.get(index(i));
+            if (slot != null && slot.sequence == i) {
+                result.add(slot.value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Open a cursor, positioned at the oldest element.
+     *
+     * @return cursor of this buffer
+     */
+    public Cursor cursor() {
+        long end = sequence.get();
+        return new Cursor(Math.max(floor.get(), end - capacity));
+    }
+
+    /**
+     * Open a cursor, that only returns the elements added from now on.
+     *
+     * @return cursor of this buffer
+     */
+    public Cursor tail() {
+        return new Cursor(sequence.get());
+    }
+
+    /**
+     * Drop all elements added until now.
+     */
+    public void clear() {
+        floor.accumulateAndGet(sequence.get(), Math::max);
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % capacity);
+    }
+
+    /**
+     * Reading position in the buffer. A cursor is not thread safe and meant to be used by one reader.
+     */
+    public class Cursor {
+
+        private long position;
+        private long missed = 0;
+
+        private Cursor(long position) {
+            this.position = position;
+        }
+
+        /**
+         * Get the next element.
+         *
+         * @return the element or null if no further element was published yet
+         */
+        public @Nullable T poll() {
+            while (true) {
+                long end = sequence.get();
+                long start = Math.max(floor.get(), end - capacity);
+                if (position < start) {
+                    missed += start - position;
+                    position = start;
+                }
+                if (position >= end) {
+                    return null;
+                }
+                Slot<T> slot = slots.get(index(position));
+                if (slot == null || slot.sequence < position) {
+                    // Claimed, but not yet published by its producer
+                    return null;
+                }
+                if (slot.sequence == position) {
+                    position++;
+                    return slot.value;
+                }
+                // Overwritten while reading, skip ahead
+                missed++;
+                position++;
+            }
+        }
+
+        /**
+         * Get the number of elements, that were overwritten before this cursor could read them.
+         *
+         * @return number of missed elements
+         */
+        public long getMissed() {
+            return missed;
+        }
+    }
+
+    private static class Slot<T> {
+
+        private final long sequence;
+        private final T value;
+
+        private Slot(long sequence, T value) {
+            this.sequence = sequence;
+            this.value = value;
+        }
+    }
+}
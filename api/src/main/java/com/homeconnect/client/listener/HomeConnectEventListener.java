@@ -42,4 +42,22 @@ public interface HomeConnectEventListener {
      */
     default void onRateLimitReached() {
     }
+
+    /**
+     * If SSE connection was lost and will be reopened
+     *
+     * @param attempt number of the reconnection attempt, starting with 1
+     * @param delay time until the attempt in ms
+     */
+    default void onReconnecting(int attempt, long delay) {
+    }
+
+    /**
+     * If SSE connection was reopened after it was lost
+     *
+     * @param gap time without connection in ms. Events of the gap can not be recovered, the state of the
+     *            appliance needs to be refreshed
+     */
+    default void onReconnected(long gap) {
+    }
 }
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client.metrics;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * Category of a REST endpoint of the Home Connect API, used to group the request metrics.
+ */
+@NonNullByDefault
+public enum Endpoint {
+    /** List and details of the home appliances */
+    APPLIANCES,
+    STATUS,
+    SETTINGS,
+    PROGRAMS,
+    EVENTS,
+    OTHER;
+
+    private static final String API_PATH = "/api/homeappliances";
+
+    /**
+     * Get the category of a request path, e.g. {@code /api/homeappliances/{haId}/status/{key}}.
+     *
+     * @param path encoded path of the request URL
+     * @return endpoint category
+     */
+    public static Endpoint of(String path) {
+        if (!path.startsWith(API_PATH)) {
+            return OTHER;
+        }
+        String[] segments = path.substring(API_PATH.length()).split("/");
+        // The path starts with a slash, followed by the appliance id and the resource
+        if (segments.length <= 2) {
+            return segments.length == 2 && "events".equals(segments[1]) ? EVENTS : APPLIANCES;
+        }
+        switch (segments[2]) {
+        case "status":
+            return STATUS;
+        case "settings":
+            return SETTINGS;
+        case "programs":
+            return PROGRAMS;
+        case "events":
+            return EVENTS;
+        default:
+            return OTHER;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client.metrics;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the request metrics of a client.
+ *
+ * Aggregates latency histograms per endpoint category, counts per response code and exception type, token
+ * refreshes and rate limiter waits. All notifications are forwarded to the registered listeners, that may bridge
+ * them to a monitoring system.
+ */
+@NonNullByDefault
+public class HomeConnectMetrics implements HomeConnectMetricsListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(HomeConnectMetrics.class);
+
+    private final Map<Endpoint, LatencyHistogram> latencies = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, LatencyHistogram> limiterWaits = new EnumMap<>(Endpoint.class);
+    private final Map<Integer, LongAdder> responseCodes = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    private final LatencyHistogram tokenRefreshes = new LatencyHistogram();
+    private final LongAdder tokenRefreshFailures = new LongAdder();
+
+    private final CopyOnWriteArrayList<HomeConnectMetricsListener> listeners = new CopyOnWriteArrayList<>();
+
+    public HomeConnectMetrics() {
+        for (Endpoint endpoint : Endpoint.values()) {
+            latencies.put(endpoint, new LatencyHistogram());
+            limiterWaits.put(endpoint, new LatencyHistogram());
+        }
+    }
+
+    public void addListener(HomeConnectMetricsListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(HomeConnectMetricsListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void onResponse(Endpoint endpoint, int code, long latency) {
+        latencies.get(endpoint).record(latency);
+        responseCodes.computeIfAbsent(code, c -> new LongAdder()).increment();
+        for (HomeConnectMetricsListener listener : listeners) {
+            try {
+                listener.onResponse(endpoint, code, latency);
+            } catch (RuntimeException e) {
+                logger.warn("Metrics listener failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void onError(Endpoint endpoint, Throwable error) {
+        errors.computeIfAbsent(error.getClass().getSimpleName(), type -> new LongAdder()).increment();
+        for (HomeConnectMetricsListener listener : listeners) {
+            try {
+                listener.onError(endpoint, error);
+            } catch (RuntimeException e) {
+                logger.warn("Metrics listener failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void onRateLimiterWait(Endpoint endpoint, long wait) {
+        limiterWaits.get(endpoint).record(wait);
+        for (HomeConnectMetricsListener listener : listeners) {
+            try {
+                listener.onRateLimiterWait(endpoint, wait);
+            } catch (RuntimeException e) {
+                logger.warn("Metrics listener failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void onTokenRefresh(boolean success, long duration) {
+        if (success) {
+            tokenRefreshes.record(duration);
+        } else {
+            tokenRefreshFailures.increment();
+        }
+        for (HomeConnectMetricsListener listener : listeners) {
+            try {
+                listener.onTokenRefresh(success, duration);
+            } catch (RuntimeException e) {
+                logger.warn("Metrics listener failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @param endpoint endpoint category
+     * @return histogram of the time until the response headers were received
+     */
+    public LatencyHistogram getLatency(Endpoint endpoint) {
+        return latencies.get(endpoint);
+    }
+
+    /**
+     * @param endpoint endpoint category
+     * @return histogram of the time spent waiting for the rate limiter
+     */
+    public LatencyHistogram getRateLimiterWait(Endpoint endpoint) {
+        return limiterWaits.get(endpoint);
+    }
+
+    /**
+     * @return counts of the received responses by HTTP response code
+     */
+    public Map<Integer, Long> getResponseCodeCounts() {
+        Map<Integer, Long> counts = new TreeMap<>();
+        responseCodes.forEach((code, count) -> counts.put(code, count.sum()));
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * @return counts of the failed requests by simple name of the exception type
+     */
+    public Map<String, Long> getErrorCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        errors.forEach((type, count) -> counts.put(type, count.sum()));
+        return Collections.unmodifiableMap(counts);
+    }
+
+    public long getErrorCount(Class<? extends Throwable> type) {
+        LongAdder count = errors.get(type.getSimpleName());
+        return count != null ? count.sum() : 0;
+    }
+
+    /**
+     * @return histogram of the durations of the successful token refreshes
+     */
+    public LatencyHistogram getTokenRefreshes() {
+        return tokenRefreshes;
+    }
+
+    public long getTokenRefreshCount() {
+        return tokenRefreshes.getCount();
+    }
+
+    public long getTokenRefreshFailureCount() {
+        return tokenRefreshFailures.sum();
+    }
+}
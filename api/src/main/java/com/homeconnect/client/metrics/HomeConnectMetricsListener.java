@@ -0,0 +1,67 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client.metrics;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * {@link HomeConnectMetricsListener} is informed about the requests of a client, e.g. to bridge them to a
+ * monitoring system. Methods are called on the threads executing the requests and should return quickly.
+ */
+@NonNullByDefault
+public interface HomeConnectMetricsListener {
+
+    /**
+     * A response was received.
+     *
+     * @param endpoint category of the requested endpoint
+     * @param code HTTP response code
+     * @param latency time from sending the request until the response headers were received, in ns
+     */
+    default void onResponse(Endpoint endpoint, int code, long latency) {
+    }
+
+    /**
+     * A request failed, either without response or with an unexpected response code.
+     *
+     * @param endpoint category of the requested endpoint
+     * @param error cause of the failure, e.g. an {@code ApplianceOfflineException}
+     */
+    default void onError(Endpoint endpoint, Throwable error) {
+    }
+
+    /**
+     * A request waited for the rate limiter before being sent.
+     *
+     * @param endpoint category of the requested endpoint
+     * @param wait time spent waiting, in ns
+     */
+    default void onRateLimiterWait(Endpoint endpoint, long wait) {
+    }
+
+    /**
+     * The access token was refreshed.
+     *
+     * @param success false if the refresh failed
+     * @param duration time the refresh took, in ns
+     */
+    default void onTokenRefresh(boolean success, long duration) {
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * Lock-free histogram of durations with fixed, roughly logarithmic buckets from 1 ms to 10 s.
+ */
+@NonNullByDefault
+public class LatencyHistogram {
+
+    private static final long[] BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000 }; // in ms
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param duration duration in ns
+     */
+    public void record(long duration) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(duration);
+        int bucket = 0;
+        while (bucket < BOUNDS.length && millis >= BOUNDS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        count.increment();
+        sum.add(duration);
+        max.accumulateAndGet(duration, Math::max);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum(TimeUnit unit) {
+        return unit.convert(sum.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMean(TimeUnit unit) {
+        long count = getCount();
+        return count > 0 ? unit.convert(sum.sum() / count, TimeUnit.NANOSECONDS) : 0;
+    }
+
+    public long getMax(TimeUnit unit) {
+        return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return exclusive upper bounds of the buckets in ms, the last bucket is unbounded
+     */
+    public static long[] getBucketBounds() {
+        return BOUNDS.clone();
+    }
+
+    /**
+     * @return counts of the buckets, one more than bounds
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * Estimate a percentile as the upper bound of the bucket it falls in.
+     *
+     * @param percentile percentile between 0 and 100
+     * @param unit time unit of the result
+     * @return estimated percentile, or the maximum if it falls in the unbounded bucket
+     */
+    public long getPercentile(double percentile, TimeUnit unit) {
+        long[] counts = getBucketCounts();
+        long total = 0;
+        for (long bucket : counts) {
+            total += bucket;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long cumulative = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            cumulative += counts[i];
+            if (cumulative >= rank) {
+                return unit.convert(BOUNDS[i], TimeUnit.MILLISECONDS);
+            }
+        }
+        return getMax(unit);
+    }
+}
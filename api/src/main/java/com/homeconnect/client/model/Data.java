@@ -12,8 +12,6 @@
  */
 package com.homeconnect.client.model;
 
-import static java.lang.Boolean.parseBoolean;
-
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 
@@ -27,10 +25,14 @@ import org.eclipse.jdt.annotation.Nullable;
 public class Data {
 
     private final String name;
-    private final @Nullable String value;
+    private final TypedValue value;
     private final @Nullable String unit;
 
     public Data(String name, @Nullable String value, @Nullable String unit) {
+        this(name, TypedValue.parse(value), unit);
+    }
+
+    public Data(String name, TypedValue value, @Nullable String unit) {
         this.name = name;
         this.value = value;
         this.unit = unit;
@@ -41,6 +43,10 @@ public class Data {
     }
 
     public @Nullable String getValue() {
+        return value.getText();
+    }
+
+    public TypedValue getTypedValue() {
         return value;
     }
 
@@ -49,39 +55,43 @@ public class Data {
     }
 
     public int getValueAsInt() {
-        @Nullable
-        String stringValue = value;
-        return stringValue != null ? Float.valueOf(stringValue).intValue() : 0;
+        return (int) value.asLong();
     }
 
     public boolean getValueAsBoolean() {
-        return parseBoolean(value);
+        return value.asBoolean();
     }
 
     public byte getValueAsByte() {
-    	return value.getBytes()[0];
+        String text = value.getText();
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        char first = text.charAt(0);
+        return first < 0x80 ? (byte) first : text.getBytes()[0];
     }
-    
+
     public byte[] getValueAsByteArray() {
-    	return value.getBytes();
+        String text = value.getText();
+        return text != null ? text.getBytes() : new byte[0];
     }
-    
+
     public double getValueAsDouble() {
-    	return value != null ? Float.valueOf(value).doubleValue() : 0.0;
+        return value.asDouble();
     }
-    
+
     public float getValueAsFloat() {
-    	return (float) (value != null ? Float.parseFloat(value) : 0.0);
+        return (float) value.asDouble();
     }
-    
+
     public long getValueAsLong() {
-    	return (long) (value != null ? Float.valueOf(value).longValue() : 0.0);
+        return value.asLong();
     }
-    
+
     public short getValueAsShort() {
-    	return (short) (value != null ? Float.valueOf(value).shortValue() : 0.0);
+        return (short) value.asLong();
     }
-    
+
     @Override
     public String toString() {
         return "Data [name=" + name + ", value=" + value + ", unit=" + unit + "]";
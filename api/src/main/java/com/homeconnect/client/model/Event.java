@@ -46,7 +46,7 @@ public class Event {
     // expected activity
     private @Nullable final EventHandling handling;
     // new value, e.g. in case of a status update (string, number or boolean)
-    private @Nullable final String value;
+    private final TypedValue value;
     // unit string
     private @Nullable final String unit;
 
@@ -59,13 +59,19 @@ public class Event {
         this.creation = ZonedDateTime.now();
         this.level = null;
         this.handling = null;
-        this.value = null;
+        this.value = TypedValue.NULL;
         this.unit = null;
     }
 
     public Event(final String haId, final EventType type, @Nullable final String key, @Nullable final String name,
             @Nullable final String uri, @Nullable final ZonedDateTime creation, @Nullable final EventLevel level,
             @Nullable final EventHandling handling, @Nullable final String value, @Nullable final String unit) {
+        this(haId, type, key, name, uri, creation, level, handling, TypedValue.parse(value), unit);
+    }
+
+    public Event(final String haId, final EventType type, @Nullable final String key, @Nullable final String name,
+            @Nullable final String uri, @Nullable final ZonedDateTime creation, @Nullable final EventLevel level,
+            @Nullable final EventHandling handling, final TypedValue value, @Nullable final String unit) {
         this.haId = haId;
         this.type = type;
         this.key = key;
@@ -111,17 +117,27 @@ public class Event {
     }
 
     public @Nullable String getValue() {
+        return value.getText();
+    }
+
+    public TypedValue getTypedValue() {
         return value;
     }
 
     public boolean getValueAsBoolean() {
-        return Boolean.parseBoolean(value);
+        return value.asBoolean();
     }
 
     public int getValueAsInt() {
-        @Nullable
-        String stringValue = value;
-        return stringValue != null ? Float.valueOf(stringValue).intValue() : 0;
+        return (int) value.asLong();
+    }
+
+    public long getValueAsLong() {
+        return value.asLong();
+    }
+
+    public double getValueAsDouble() {
+        return value.asDouble();
     }
 
     public @Nullable String getUnit() {
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client.model;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Value of a {@link Data} or {@link Event}, parsed once from the JSON value or string.
+ *
+ * Numbers are kept as long if integral and as double otherwise, so conversions neither parse the string again
+ * nor lose the precision of a float.
+ */
+@NonNullByDefault
+public final class TypedValue {
+
+    public static enum Kind {
+        NULL,
+        BOOLEAN,
+        LONG,
+        DOUBLE,
+        STRING;
+    }
+
+    public static final TypedValue NULL = new TypedValue(Kind.NULL, null, 0, 0);
+
+    private static final TypedValue TRUE = new TypedValue(Kind.BOOLEAN, "true", 1, 1);
+    private static final TypedValue FALSE = new TypedValue(Kind.BOOLEAN, "false", 0, 0);
+
+    private final Kind kind;
+    private final @Nullable String text;
+    private final long longValue;
+    private final double doubleValue;
+
+    private TypedValue(Kind kind, @Nullable String text, long longValue, double doubleValue) {
+        this.kind = kind;
+        this.text = text;
+        this.longValue = longValue;
+        this.doubleValue = doubleValue;
+    }
+
+    public static TypedValue ofBoolean(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    public static TypedValue ofString(String value) {
+        return new TypedValue(Kind.STRING, value, 0, 0);
+    }
+
+    /**
+     * @param number lexical representation of a JSON number
+     * @return long value if the number is integral and in range, double value otherwise
+     * @throws NumberFormatException if the string is no number
+     */
+    public static TypedValue ofNumber(String number) {
+        if (isIntegral(number)) {
+            try {
+                long value = Long.parseLong(number);
+                return new TypedValue(Kind.LONG, number, value, value);
+            } catch (NumberFormatException e) {
+                // Out of the range of long
+            }
+        }
+        double value = Double.parseDouble(number);
+        return new TypedValue(Kind.DOUBLE, number, (long) value, value);
+    }
+
+    /**
+     * Infer the value of a string without type information, e.g. a value set by a channel.
+     *
+     * @param value string value or null
+     * @return boolean for "true" and "false", number if the string is numeric, string otherwise
+     */
+    public static TypedValue parse(@Nullable String value) {
+        if (value == null) {
+            return NULL;
+        }
+        if ("true".equals(value) || "false".equals(value)) {
+            return ofBoolean("true".equals(value));
+        }
+        if (isNumeric(value)) {
+            try {
+                return ofNumber(value);
+            } catch (NumberFormatException e) {
+                // Fall through to string, e.g. for a single sign
+            }
+        }
+        return ofString(value);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public boolean isNull() {
+        return kind == Kind.NULL;
+    }
+
+    public boolean isNumber() {
+        return kind == Kind.LONG || kind == Kind.DOUBLE;
+    }
+
+    /**
+     * @return the value as string, as received
+     */
+    public @Nullable String getText() {
+        return text;
+    }
+
+    /**
+     * @return true for a boolean true or a string "true", ignoring case
+     */
+    public boolean asBoolean() {
+        switch (kind) {
+        case BOOLEAN:
+            return longValue != 0;
+        case STRING:
+            return Boolean.parseBoolean(text);
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return the number truncated to long, 1 or 0 for booleans and 0 for null. Strings are parsed as number.
+     * @throws NumberFormatException if the value is a string, that is no number
+     */
+    public long asLong() {
+        if (kind == Kind.STRING) {
+            return parseNumber().longValue;
+        }
+        return longValue;
+    }
+
+    /**
+     * @return the number, 1 or 0 for booleans and 0 for null. Strings are parsed as number.
+     * @throws NumberFormatException if the value is a string, that is no number
+     */
+    public double asDouble() {
+        if (kind == Kind.STRING) {
+            return parseNumber().doubleValue;
+        }
+        return doubleValue;
+    }
+
+    /**
+     * Parse a string value, like numeric text sent as JSON string.
+     */
+    private TypedValue parseNumber() {
+        String text = this.text;
+        if (text == null) {
+            throw new NumberFormatException("Not a number: null");
+        }
+        return ofNumber(text);
+    }
+
+    private static boolean isIntegral(String number) {
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c == '.' || c == 'e' || c == 'E') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNumeric(String value) {
+        if (value.isEmpty()) {
+            return false;
+        }
+        char first = value.charAt(0);
+        return first == '-' || first == '+' || first == '.' || (first >= '0' && first <= '9');
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(text);
+    }
+}
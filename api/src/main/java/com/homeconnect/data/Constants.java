@@ -60,6 +60,9 @@ public class Constants {
     public static final String OPTION_FINISH_IN_RELATIVE = "BSH.Common.Option.FinishInRelative";
     public static final String OPTION_ESTIMATED_TOTAL_PROGRAM_TIME ="BSH.Common.Option.RemainingProgramTime";
 
+    public static final String ROOT_ACTIVE_PROGRAM = "BSH.Common.Root.ActiveProgram";
+    public static final String ROOT_SELECTED_PROGRAM = "BSH.Common.Root.SelectedProgram";
+
 //    // SSE Event types
 //    public static final String EVENT_ELAPSED_PROGRAM_TIME = "BSH.Common.Option.ElapsedProgramTime";
 //    public static final String EVENT_OVEN_CAVITY_TEMPERATURE = "Cooking.Oven.Status.CurrentCavityTemperature";
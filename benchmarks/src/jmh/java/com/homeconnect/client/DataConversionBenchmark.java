@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import com.homeconnect.client.model.Data;
+
+/**
+ * Conversions of the string values of {@link Data}, as done for every channel read.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DataConversionBenchmark {
+
+    private final Data integer = new Data("BSH.Common.Option.RemainingProgramTime", "3540", "seconds");
+    private final Data decimal = new Data("Cooking.Oven.Status.CurrentCavityTemperature", "178.5", "°C");
+    private final Data bool = new Data("BSH.Common.Setting.ChildLock", "true", null);
+
+    @Benchmark
+    public int getValueAsInt() {
+        return integer.getValueAsInt();
+    }
+
+    @Benchmark
+    public long getValueAsLong() {
+        return integer.getValueAsLong();
+    }
+
+    @Benchmark
+    public short getValueAsShort() {
+        return integer.getValueAsShort();
+    }
+
+    @Benchmark
+    public double getValueAsDouble() {
+        return decimal.getValueAsDouble();
+    }
+
+    @Benchmark
+    public float getValueAsFloat() {
+        return decimal.getValueAsFloat();
+    }
+
+    @Benchmark
+    public boolean getValueAsBoolean() {
+        return bool.getValueAsBoolean();
+    }
+}
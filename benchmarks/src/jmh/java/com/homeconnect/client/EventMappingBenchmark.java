@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.homeconnect.client.model.Event;
+import com.homeconnect.client.model.EventType;
+
+/**
+ * Mapping of the server-sent events of the event stream, as received by
+ * {@link HomeConnectEventSourceListener}.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EventMappingBenchmark {
+
+    private static final String HA_ID = "SIEMENS-HCS02DWH1-6BE58C1E4C4C";
+
+    @Param({ "1", "10" })
+    public int items;
+
+    private String status;
+    private String notify;
+
+    @Setup
+    public void setup() {
+        StringBuilder builder = new StringBuilder("{\"items\":[");
+        for (int i = 0; i < items; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"timestamp\":1603212012,\"handling\":\"none\",\"uri\":\"/api/homeappliances/")
+                    .append(HA_ID).append("/status/BSH.Common.Status.Key").append(i)
+                    .append("\",\"key\":\"BSH.Common.Status.Key").append(i)
+                    .append("\",\"value\":\"BSH.Common.EnumType.DoorState.Open\",\"level\":\"hint\"}");
+        }
+        status = builder.append("]}").toString();
+
+        notify = "{\"items\":[{\"timestamp\":1603212012,\"handling\":\"none\",\"uri\":\"/api/homeappliances/"
+                + HA_ID + "/programs/active/options/BSH.Common.Option.RemainingProgramTime\","
+                + "\"key\":\"BSH.Common.Option.RemainingProgramTime\",\"unit\":\"seconds\",\"value\":3540,"
+                + "\"level\":\"hint\"}]}";
+    }
+
+    @Benchmark
+    public List<Event> mapStatus() {
+        return HomeConnectEventSourceListener.mapEventSourceEventToEvent(HA_ID, EventType.STATUS, status);
+    }
+
+    @Benchmark
+    public List<Event> mapNotify() {
+        return HomeConnectEventSourceListener.mapEventSourceEventToEvent(HA_ID, EventType.NOTIFY, notify);
+    }
+
+    @Benchmark
+    public List<Event> mapKeepAlive() {
+        return HomeConnectEventSourceListener.mapEventSourceEventToEvent(HA_ID, EventType.KEEP_ALIVE, "");
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.homeconnect.client.model.AvailableProgram;
+import com.homeconnect.client.model.AvailableProgramOption;
+import com.homeconnect.client.model.Data;
+import com.homeconnect.client.model.Option;
+import com.homeconnect.client.model.Program;
+
+import okio.Buffer;
+
+/**
+ * Decoding of the REST response bodies, as done by the response mappers of {@link HomeConnectApiClient}.
+ *
+ * Each invocation decodes a clone of the prepared body, which shares its segments like the buffered body of
+ * a response does. The {@code *Tree} benchmarks are the baseline of the previous decoding, which read the body
+ * into a string and parsed it into a full JSON tree. The largest size resembles the available programs listing
+ * of an oven.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class JsonDecoderBenchmark {
+
+    @Param({ "1", "20", "200" })
+    public int size;
+
+    private Buffer state;
+    private Buffer states;
+    private Buffer program;
+    private Buffer availablePrograms;
+    private Buffer availableProgramOptions;
+
+    private final JsonParser jsonParser = new JsonParser();
+
+    @Setup
+    public void setup() {
+        state = body("{\"data\":{\"key\":\"BSH.Common.Status.DoorState\","
+                + "\"value\":\"BSH.Common.EnumType.DoorState.Closed\",\"unit\":null}}");
+
+        StringBuilder builder = new StringBuilder("{\"data\":{\"status\":[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"key\":\"BSH.Common.Status.Key").append(i).append("\",\"value\":").append(i * 10)
+                    .append(",\"unit\":\"W\",\"name\":\"Status ").append(i).append("\"}");
+        }
+        states = body(builder.append("]}}").toString());
+
+        builder = new StringBuilder("{\"data\":{\"key\":\"Dishcare.Dishwasher.Program.Eco50\",\"options\":[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"key\":\"BSH.Common.Option.Key").append(i).append("\",\"value\":").append(i * 60)
+                    .append(",\"unit\":\"seconds\"}");
+        }
+        program = body(builder.append("]}}").toString());
+
+        builder = new StringBuilder("{\"data\":{\"programs\":[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"key\":\"Dishcare.Dishwasher.Program.Key").append(i)
+                    .append("\",\"constraints\":{\"available\":true,\"execution\":\"selectandstart\"}}");
+        }
+        availablePrograms = body(builder.append("]}}").toString());
+
+        builder = new StringBuilder("{\"data\":{\"key\":\"Cooking.Oven.Program.HeatingMode.HotAir\",\"options\":[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"key\":\"Cooking.Oven.Option.Key").append(i).append("\",\"type\":\"Int\","
+                    + "\"unit\":\"°C\",\"constraints\":{\"min\":30,\"max\":250,"
+                    + "\"allowedvalues\":[\"Value.A\",\"Value.B\",\"Value.C\"]}}");
+        }
+        availableProgramOptions = body(builder.append("]}}").toString());
+    }
+
+    @Benchmark
+    public Data decodeState() throws IOException {
+        return HomeConnectJsonDecoder.decodeState(state.clone());
+    }
+
+    @Benchmark
+    public List<Data> decodeStates() throws IOException {
+        return HomeConnectJsonDecoder.decodeStates(states.clone(), "status");
+    }
+
+    @Benchmark
+    public Program decodeProgram() throws IOException {
+        return HomeConnectJsonDecoder.decodeProgram(program.clone());
+    }
+
+    @Benchmark
+    public List<AvailableProgram> decodeAvailablePrograms() throws IOException {
+        return HomeConnectJsonDecoder.decodeAvailablePrograms(availablePrograms.clone());
+    }
+
+    @Benchmark
+    public List<AvailableProgramOption> decodeAvailableProgramOptions() throws IOException {
+        return HomeConnectJsonDecoder.decodeAvailableProgramOptions(availableProgramOptions.clone());
+    }
+
+    @Benchmark
+    public Data decodeStateTree() {
+        JsonObject data = parse(state);
+        return new Data(data.get("key").getAsString(), string(data, "value"), string(data, "unit"));
+    }
+
+    @Benchmark
+    public List<Data> decodeStatesTree() {
+        List<Data> result = new ArrayList<>();
+        for (JsonElement item : parse(states).getAsJsonArray("status")) {
+            JsonObject obj = item.getAsJsonObject();
+            if (obj.get("key") != null && obj.get("value") != null) {
+                result.add(new Data(obj.get("key").getAsString(), string(obj, "value"), string(obj, "unit")));
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Program decodeProgramTree() {
+        JsonObject data = parse(program);
+        List<Option> options = new ArrayList<>();
+        for (JsonElement option : data.getAsJsonArray("options")) {
+            JsonObject obj = option.getAsJsonObject();
+            options.add(new Option(string(obj, "key"), string(obj, "value"), string(obj, "unit")));
+        }
+        return new Program(data.get("key").getAsString(), options);
+    }
+
+    @Benchmark
+    public List<AvailableProgram> decodeAvailableProgramsTree() {
+        List<AvailableProgram> result = new ArrayList<>();
+        for (JsonElement program : parse(availablePrograms).getAsJsonArray("programs")) {
+            JsonObject obj = program.getAsJsonObject();
+            JsonObject constraints = obj.getAsJsonObject("constraints");
+            String key = string(obj, "key");
+            String execution = string(constraints, "execution");
+            if (key != null && execution != null) {
+                result.add(new AvailableProgram(key,
+                        constraints.get("available") != null && constraints.get("available").getAsBoolean(),
+                        execution));
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<AvailableProgramOption> decodeAvailableProgramOptionsTree() {
+        List<AvailableProgramOption> result = new ArrayList<>();
+        for (JsonElement option : parse(availableProgramOptions).getAsJsonArray("options")) {
+            JsonObject obj = option.getAsJsonObject();
+            List<String> allowedValues = new ArrayList<>();
+            JsonArray values = obj.getAsJsonObject("constraints").getAsJsonArray("allowedvalues");
+            for (JsonElement value : values) {
+                allowedValues.add(value.getAsString());
+            }
+            String key = string(obj, "key");
+            if (key != null) {
+                result.add(new AvailableProgramOption(key, allowedValues));
+            }
+        }
+        return result;
+    }
+
+    private JsonObject parse(Buffer body) {
+        return jsonParser.parse(body.clone().readUtf8()).getAsJsonObject().getAsJsonObject("data");
+    }
+
+    private static String string(JsonObject obj, String name) {
+        JsonElement element = obj.get(name);
+        return element != null && !element.isJsonNull() ? element.getAsString() : null;
+    }
+
+    private static Buffer body(String json) {
+        return new Buffer().writeUtf8(json);
+    }
+}
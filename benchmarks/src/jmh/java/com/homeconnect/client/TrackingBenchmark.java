@@ -0,0 +1,113 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.client;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.google.api.client.auth.oauth2.BearerToken;
+import com.google.api.client.auth.oauth2.Credential;
+import com.homeconnect.client.HomeConnectApiClient.TrackingMode;
+import com.homeconnect.client.model.ApiRequest;
+
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.Buffer;
+
+/**
+ * Tracking of the API requests of a {@link HomeConnectApiClient} and the formatting of the tracked bodies.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TrackingBenchmark {
+
+    private static final String API_URL = "http://localhost";
+    private static final String HA_ID = "SIEMENS-HCS02DWH1-6BE58C1E4C4C";
+
+    @Param({ "OFF", "SAMPLED", "FULL" })
+    public TrackingMode mode;
+
+    private HomeConnectRequestScheduler scheduler;
+    private HomeConnectApiClient client;
+
+    private Request request;
+    private Response response;
+    private Buffer responseBody;
+    private String responseJson;
+
+    @Setup
+    public void setup() {
+        scheduler = new HomeConnectRequestScheduler("benchmark");
+        client = new HomeConnectApiClient(HomeConnectTransport.getInstance(API_URL),
+                new Credential(BearerToken.authorizationHeaderAccessMethod()), scheduler, null);
+        client.setTrackingMode(mode);
+
+        request = new Request.Builder().url(API_URL + "/api/homeappliances/" + HA_ID + "/status")
+                .header("Authorization", "Bearer token").header("Accept", "application/vnd.bsh.sdk.v1+json")
+                .get().build();
+        response = new Response.Builder().request(request).protocol(Protocol.HTTP_1_1).code(200).message("OK")
+                .header("Content-Type", "application/vnd.bsh.sdk.v1+json").build();
+
+        StringBuilder builder = new StringBuilder("{\"data\":{\"status\":[");
+        for (int i = 0; i < 10; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"key\":\"BSH.Common.Status.Key").append(i).append("\",\"value\":").append(i)
+                    .append("}");
+        }
+        responseJson = builder.append("]}}").toString();
+        responseBody = new Buffer().writeUtf8(responseJson);
+
+        // Fill the request history, so materializing it covers a full queue
+        for (int i = 0; i < 50; i++) {
+            client.trackApiRequest(request, null, response, responseBody);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Benchmark
+    public void trackApiRequest() {
+        client.trackApiRequest(request, null, response, responseBody);
+    }
+
+    @Benchmark
+    public Queue<ApiRequest> getLatestApiRequests() {
+        return client.getLatestApiRequests();
+    }
+
+    @Benchmark
+    public String formatJsonBody() {
+        return OkHttpHelper.formatJsonBody(responseJson);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openmuc.framework.driver.homeconnect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openmuc.framework.data.Flag;
+import org.openmuc.framework.driver.spi.ChannelRecordContainer;
+import org.openmuc.framework.driver.spi.RecordsReceivedListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.homeconnect.client.listener.HomeConnectEventListener;
+import com.homeconnect.client.model.Data;
+import com.homeconnect.client.model.Event;
+import com.homeconnect.client.model.TypedValue;
+import com.homeconnect.data.Constants;
+import com.homeconnect.data.Resource;
+
+/**
+ * Maps the events of one home appliance onto its listening channels.
+ */
+public class HomeConnectListener implements HomeConnectEventListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(HomeConnectListener.class);
+
+    private final HomeConnection connection;
+    private final String haId;
+    private final List<HomeConnectChannel> channels;
+    private final RecordsReceivedListener listener;
+
+    private volatile boolean disposed = false;
+
+    public HomeConnectListener(HomeConnection connection, String haId, List<HomeConnectChannel> channels,
+    		RecordsReceivedListener listener) {
+    	this.connection = connection;
+    	this.haId = haId;
+    	this.channels = channels;
+    	this.listener = listener;
+    }
+
+    public String getHomeApplianceId() {
+    	return haId;
+    }
+
+    /**
+     * Stop forwarding events, before the event stream gets closed on purpose.
+     */
+    public void dispose() {
+    	disposed = true;
+    }
+
+    @Override
+    public void onEvent(Event event) {
+    	if (disposed) {
+    		return;
+    	}
+    	long timestamp = event.getCreation() != null ? event.getCreation().toInstant().toEpochMilli() :
+    			System.currentTimeMillis();
+
+    	List<ChannelRecordContainer> records = new ArrayList<ChannelRecordContainer>();
+    	switch (event.getType()) {
+		case STATUS:
+		case EVENT:
+		case NOTIFY:
+			if (event.getKey() == null) {
+				break;
+			}
+			for (HomeConnectChannel channel : channels) {
+				Data data = mapToData(channel.getResource(), event);
+				if (data != null) {
+					channel.setData(data, timestamp);
+					records.add((ChannelRecordContainer) channel.getTaskContainer());
+					logger.trace("Received value for channel \"{}\": {}", channel.getId(), channel.getRecord());
+				}
+			}
+			break;
+		case DISCONNECTED:
+		case DEPAIRED:
+			logger.debug("Home appliance {} disconnected", haId);
+			for (HomeConnectChannel channel : channels) {
+				channel.setFlag(Flag.COMM_DEVICE_NOT_CONNECTED);
+				records.add((ChannelRecordContainer) channel.getTaskContainer());
+			}
+			break;
+		default:
+			break;
+    	}
+    	if (!records.isEmpty()) {
+    		listener.newRecords(records);
+    	}
+    }
+
+    @Override
+    public void onClosed() {
+    	if (disposed) {
+    		return;
+    	}
+    	logger.info("Event stream of home appliance {} closed", haId);
+    	listener.connectionInterrupted(HomeConnectDriver.ID, connection);
+    }
+
+    @Override
+    public void onRateLimitReached() {
+    	if (disposed) {
+    		return;
+    	}
+    	logger.warn("Rate limit reached for event stream of home appliance {}", haId);
+    	listener.connectionInterrupted(HomeConnectDriver.ID, connection);
+    }
+
+    @Override
+    public void onReconnecting(int attempt, long delay) {
+    	if (disposed) {
+    		return;
+    	}
+    	logger.info("Event stream of home appliance {} lost, reconnecting in {}ms (attempt {})", haId, delay, attempt);
+    }
+
+    @Override
+    public void onReconnected(long gap) {
+    	if (disposed) {
+    		return;
+    	}
+    	logger.info("Event stream of home appliance {} reconnected, events of the last {}ms may be missed", haId, gap);
+    }
+
+    private static Data mapToData(Resource resource, Event event) {
+    	String key = event.getKey();
+    	String value = event.getValue();
+    	switch (resource.getType()) {
+		case PROGRAM_ACTIVE:
+			if (Constants.ROOT_ACTIVE_PROGRAM.equals(key)) {
+				return new Data(resource.getKey(), TypedValue.ofBoolean(value != null && !value.isEmpty()), "boolean");
+			}
+			break;
+		case PROGRAM_SELECTED:
+			if (Constants.ROOT_SELECTED_PROGRAM.equals(key) && value != null && !value.isEmpty()) {
+				return new Data(value, TypedValue.ofString(value), "String");
+			}
+			break;
+		case SETTINGS:
+		case STATUS:
+		case PROGRAM_ACTIVE_OPTIONS:
+			if (resource.getKey().equals(key) && value != null) {
+				return new Data(key, event.getTypedValue(), event.getUnit());
+			}
+			break;
+		default:
+			break;
+    	}
+    	return null;
+    }
+}
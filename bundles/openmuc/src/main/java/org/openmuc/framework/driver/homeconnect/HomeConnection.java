@@ -23,7 +23,16 @@ import static com.homeconnect.data.Constants.API_BASE_URL;
 import static org.openmuc.framework.config.option.annotation.OptionType.ADDRESS;
 
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.openmuc.framework.config.ArgumentSyntaxException;
 import org.openmuc.framework.config.option.annotation.Option;
@@ -33,6 +42,7 @@ import org.openmuc.framework.data.Value;
 import org.openmuc.framework.driver.DriverDevice;
 import org.openmuc.framework.driver.annotation.Connect;
 import org.openmuc.framework.driver.annotation.Device;
+import org.openmuc.framework.driver.annotation.Disconnect;
 import org.openmuc.framework.driver.annotation.Listen;
 import org.openmuc.framework.driver.annotation.Read;
 import org.openmuc.framework.driver.annotation.Write;
@@ -42,8 +52,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.homeconnect.client.HomeConnectApiClient;
+import com.homeconnect.client.HomeConnectApiClient.TrackingMode;
+import com.homeconnect.client.HomeConnectApplianceRegistry;
+import com.homeconnect.client.HomeConnectEventDispatcher;
+import com.homeconnect.client.HomeConnectEventDispatcher.OverflowPolicy;
+import com.homeconnect.client.HomeConnectEventSourceClient;
+import com.homeconnect.client.HomeConnectEventSourceClient.StreamMode;
+import com.homeconnect.client.HomeConnectWriteBatch;
 import com.homeconnect.client.exception.HomeConnectException;
 import com.homeconnect.client.exception.InvalidScopeOrIdException;
+import com.homeconnect.client.model.Data;
+import com.homeconnect.data.Resource;
 
 
 @Syntax(separator = "@")
@@ -67,21 +86,93 @@ public class HomeConnection extends DriverDevice {
 
     private HomeConnectApiClient client;
 
+    private HomeConnectEventSourceClient eventClient;
+
+    private ScheduledExecutorService scheduler;
+
+    private final List<HomeConnectListener> listeners = new ArrayList<HomeConnectListener>();
+
 
     @Connect
     public void connect() throws ArgumentSyntaxException, ConnectionException {
         try {
             client = new HomeConnectApiClient(apiUrl, username);
+            client.setTrackingMode(TrackingMode.OFF);
             
         } catch (Exception e) {
             throw new ConnectionException(e);
         }
     }
 
+    @Disconnect
+    public synchronized void close() {
+        disposeListeners();
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        eventClient = null;
+    }
+
     @Listen
-    public void registerEvents(List<HomeConnectChannel> containers, RecordsReceivedListener listener) 
+    public synchronized void registerEvents(List<HomeConnectChannel> channels, RecordsReceivedListener listener) 
     		throws ConnectionException {
-    	throw new UnsupportedOperationException();
+    	if (channels.isEmpty()) {
+    		disposeListeners();
+    		return;
+    	}
+    	if (eventClient == null) {
+    		scheduler = Executors.newSingleThreadScheduledExecutor();
+    		eventClient = client.createEventSourceClient(scheduler);
+    	}
+    	disposeListeners();
+    	
+    	Map<String, List<HomeConnectChannel>> appliances = new LinkedHashMap<String, List<HomeConnectChannel>>();
+    	for (HomeConnectChannel channel : channels) {
+    		appliances.computeIfAbsent(channel.getHomeApplianceId(), haId -> new ArrayList<>()).add(channel);
+    	}
+    	// Share one event stream of the account, instead of using up the limited channels per appliance
+    	eventClient.setStreamMode(appliances.size() > 1 ? StreamMode.ACCOUNT : StreamMode.APPLIANCE);
+    	
+    	HomeConnectApplianceRegistry registry = client.getApplianceRegistry();
+    	try {
+    		// Kept up to date by the events, to skip reading disconnected appliances
+    		registry.load();
+    		
+    	} catch (HomeConnectException e) {
+    		logger.warn("Unable to load home appliances: {}", e.getMessage());
+    	}
+    	for (Map.Entry<String, List<HomeConnectChannel>> appliance : appliances.entrySet()) {
+    		String haId = appliance.getKey();
+    		logger.debug("Listen for events of {} channels of appliance {}", appliance.getValue().size(), haId);
+    		
+    		HomeConnectListener applianceListener = new HomeConnectListener(this, haId, appliance.getValue(), listener);
+    		try {
+    			// Channels only need the latest value of each key, if the listener falls behind
+    			eventClient.registerEventListener(haId, client.getStateCache().createListener(haId,
+    					registry.createListener(haId, applianceListener)),
+    					OverflowPolicy.CONFLATE, HomeConnectEventDispatcher.DEFAULT_CAPACITY);
+    			listeners.add(applianceListener);
+    			
+    		} catch (Exception e) {
+    			disposeListeners();
+    			throw new ConnectionException(
+    					MessageFormat.format("Error listening for events of appliance {0}: {1}", haId, e.getMessage()));
+    		}
+    	}
+    }
+
+    private void disposeListeners() {
+    	for (HomeConnectListener listener : listeners) {
+    		listener.dispose();
+    		client.getStateCache().close(listener.getHomeApplianceId());
+    	}
+    	listeners.clear();
+    	if (eventClient != null) {
+    		eventClient.dispose();
+    	}
+    	// Connection changes are not received anymore
+    	client.getApplianceRegistry().clear();
     }
 
     @Read
@@ -89,20 +180,30 @@ public class HomeConnection extends DriverDevice {
     		throws ConnectionException {
         long samplingTime = System.currentTimeMillis();
         try {
-			for (HomeConnectChannel channel : channels) {
-				logger.debug("Read channel \"{}\": {}@{}", channel.getId(), channel.getResource(),
-						channel.getHomeApplianceId());
-				try {
-					channel.setData(client.get(channel.getHomeApplianceId(), channel.getResource()), samplingTime);
-					logger.trace("Read value from channel \"{}\": {}", channel.getId(), channel.getRecord());       
-					
-				} catch (UnsupportedOperationException e) {
-					channel.setFlag(Flag.ACCESS_METHOD_NOT_SUPPORTED);
-                    logger.warn("Unable to read resource {}", channel.getResource());
-				} catch (InvalidScopeOrIdException e) {
-				    channel.setFlag(Flag.DRIVER_ERROR_READ_FAILURE);
-				    logger.warn("Wrong scope or haId configured for resource {}", channel.getResource());
-			    }
+			for (Map.Entry<String, Map<Resource.Type, List<HomeConnectChannel>>> appliance : 
+					groupChannels(channels).entrySet()) {
+				String haId = appliance.getKey();
+				if (client.getApplianceRegistry().isOffline(haId)) {
+					logger.debug("Skip reading disconnected appliance {}", haId);
+					for (List<HomeConnectChannel> group : appliance.getValue().values()) {
+						for (HomeConnectChannel channel : group) {
+							channel.setFlag(Flag.COMM_DEVICE_NOT_CONNECTED);
+						}
+					}
+					continue;
+				}
+				for (Map.Entry<Resource.Type, List<HomeConnectChannel>> group : appliance.getValue().entrySet()) {
+					List<HomeConnectChannel> groupChannels = group.getValue();
+					if (groupChannels.size() > 1 && 
+							(group.getKey() == Resource.Type.STATUS || group.getKey() == Resource.Type.SETTINGS)) {
+						readAll(haId, group.getKey(), groupChannels, samplingTime);
+					}
+					else {
+						for (HomeConnectChannel channel : groupChannels) {
+							read(channel, samplingTime);
+						}
+					}
+				}
 			}
         } catch(HomeConnectException e) {
         	throw new ConnectionException(
@@ -110,33 +211,128 @@ public class HomeConnection extends DriverDevice {
         }
     }
 
+    private void readAll(String haId, Resource.Type type, List<HomeConnectChannel> channels, long samplingTime) 
+    		throws HomeConnectException {
+    	List<HomeConnectChannel> pending = new ArrayList<HomeConnectChannel>(channels.size());
+    	for (HomeConnectChannel channel : channels) {
+    		Data data = client.getStateCache().get(haId, channel.getResource().getKey());
+    		if (data != null) {
+    			channel.setData(data, samplingTime);
+    			logger.trace("Read cached value from channel \"{}\": {}", channel.getId(), channel.getRecord());
+    		}
+    		else {
+    			pending.add(channel);
+    		}
+    	}
+    	if (pending.size() < 2) {
+    		for (HomeConnectChannel channel : pending) {
+    			read(channel, samplingTime);
+    		}
+    		return;
+    	}
+    	logger.debug("Read {} channels of {} resources from appliance {}", pending.size(), type, haId);
+    	
+    	Map<String, Data> values = new HashMap<String, Data>();
+    	try {
+    		List<Data> dataList = type == Resource.Type.STATUS ? client.getAllStatus(haId) : client.getAllSettings(haId);
+    		for (Data data : dataList) {
+    			values.put(data.getName(), data);
+    		}
+    	} catch (UnsupportedOperationException e) {
+    		logger.debug("Unable to read all {} resources of appliance {}", type, haId);
+    	} catch (InvalidScopeOrIdException e) {
+    		for (HomeConnectChannel channel : pending) {
+    			channel.setFlag(Flag.DRIVER_ERROR_READ_FAILURE);
+    		}
+    		logger.warn("Wrong scope or haId configured for {} resources of appliance {}", type, haId);
+    		return;
+    	}
+    	for (HomeConnectChannel channel : pending) {
+    		Data data = values.get(channel.getResource().getKey());
+    		if (data != null) {
+    			channel.setData(data, samplingTime);
+    			logger.trace("Read value from channel \"{}\": {}", channel.getId(), channel.getRecord());
+    		}
+    		else {
+    			// Not part of the bulk response, let the single request report the reason
+    			read(channel, samplingTime);
+    		}
+    	}
+    }
+
+    private void read(HomeConnectChannel channel, long samplingTime) throws HomeConnectException {
+		logger.debug("Read channel \"{}\": {}@{}", channel.getId(), channel.getResource(),
+				channel.getHomeApplianceId());
+		try {
+			channel.setData(client.get(channel.getHomeApplianceId(), channel.getResource()), samplingTime);
+			logger.trace("Read value from channel \"{}\": {}", channel.getId(), channel.getRecord());       
+			
+		} catch (UnsupportedOperationException e) {
+			channel.setFlag(Flag.ACCESS_METHOD_NOT_SUPPORTED);
+            logger.warn("Unable to read resource {}", channel.getResource());
+		} catch (InvalidScopeOrIdException e) {
+		    channel.setFlag(Flag.DRIVER_ERROR_READ_FAILURE);
+		    logger.warn("Wrong scope or haId configured for resource {}", channel.getResource());
+	    }
+    }
+
+    private static Map<String, Map<Resource.Type, List<HomeConnectChannel>>> groupChannels(
+    		List<HomeConnectChannel> channels) {
+    	Map<String, Map<Resource.Type, List<HomeConnectChannel>>> groups = 
+    			new LinkedHashMap<String, Map<Resource.Type, List<HomeConnectChannel>>>();
+    	for (HomeConnectChannel channel : channels) {
+    		groups.computeIfAbsent(channel.getHomeApplianceId(), haId -> new EnumMap<>(Resource.Type.class))
+    				.computeIfAbsent(channel.getResource().getType(), type -> new ArrayList<>())
+    				.add(channel);
+    	}
+    	return groups;
+    }
+
     @Write
     public void write(List<HomeConnectChannel> channels) 
     		throws ConnectionException {
-        try {
-			for (HomeConnectChannel channel : channels) {
-				logger.debug("Write channel \"{}\": {}@{}", channel.getId(), channel.getResource(),
-						channel.getHomeApplianceId());
-				try {
-					Value value = channel.getRecord().getValue();
-					client.set(channel.getHomeApplianceId(), channel.getResource(), value.asString(),
-							channel.getUnit());
-
-					channel.setFlag(Flag.VALID);
-					logger.trace("Wrote value to channel \"{}\": {}", channel.getId(), value);
-
-				} catch (UnsupportedOperationException e) {
+    	HomeConnectWriteBatch batch = client.createWriteBatch();
+    	List<CompletableFuture<Void>> writes = new ArrayList<CompletableFuture<Void>>(channels.size());
+		for (HomeConnectChannel channel : channels) {
+			logger.debug("Write channel \"{}\": {}@{}", channel.getId(), channel.getResource(),
+					channel.getHomeApplianceId());
+			
+			Value value = channel.getRecord().getValue();
+			// Like set(), the batch ignores writes of program options
+			writes.add(batch.add(channel.getHomeApplianceId(), channel.getResource(), value.asString(),
+					channel.getUnit()));
+		}
+		// Repeated writes of a resource are only sent once, with the latest value
+		batch.execute();
+		
+		Throwable error = null;
+		for (int i = 0; i < channels.size(); i++) {
+			HomeConnectChannel channel = channels.get(i);
+			try {
+				writes.get(i).join();
+				
+				channel.setFlag(Flag.VALID);
+				logger.trace("Wrote value to channel \"{}\": {}", channel.getId(), channel.getRecord().getValue());
+				
+			} catch (CompletionException e) {
+				Throwable cause = e.getCause() != null ? e.getCause() : e;
+				if (cause instanceof UnsupportedOperationException) {
 					channel.setFlag(Flag.ACCESS_METHOD_NOT_SUPPORTED);
 					logger.warn("Unable to write resource {}", channel.getResource());
-				} catch (InvalidScopeOrIdException e) {
+				}
+				else if (cause instanceof InvalidScopeOrIdException) {
 					channel.setFlag(Flag.DRIVER_ERROR_READ_FAILURE);
 					logger.warn("Wrong scope or haId configured for resource {}", channel.getResource());
-				}			
+				}
+				else if (error == null) {
+					error = cause;
+				}
 			}
-        } catch (HomeConnectException e) {
+		}
+		if (error != null) {
         	throw new ConnectionException(
-        			MessageFormat.format("Error reading channel! {0}", e.getMessage()));
-        }
+        			MessageFormat.format("Error reading channel! {0}", error.getMessage()));
+		}
     }
 
 }
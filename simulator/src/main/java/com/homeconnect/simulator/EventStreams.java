@@ -0,0 +1,229 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.simulator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.homeconnect.simulator.SimulatedAppliance.Change;
+
+/**
+ * Open server-sent event streams of the simulated appliances.
+ *
+ * Streams are held as asynchronous servlet requests, so thousands of open streams do not block server threads.
+ */
+class EventStreams {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventStreams.class);
+
+    static final String STATUS = "STATUS";
+    static final String EVENT = "EVENT";
+    static final String NOTIFY = "NOTIFY";
+    static final String KEEP_ALIVE = "KEEP-ALIVE";
+    static final String CONNECTED = "CONNECTED";
+    static final String DISCONNECTED = "DISCONNECTED";
+
+    // Key of the aggregate streams, carrying the events of all appliances
+    private static final String ACCOUNT = "";
+
+    private final Map<String, Set<Stream>> streams = new ConcurrentHashMap<>();
+
+    void open(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        open(ACCOUNT, request, response);
+    }
+
+    void open(String haId, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+
+        AsyncContext context = request.startAsync();
+        context.setTimeout(0);
+
+        Stream stream = new Stream(haId, context);
+        context.addListener(stream);
+        streams.computeIfAbsent(haId, id -> ConcurrentHashMap.newKeySet()).add(stream);
+        response.flushBuffer();
+
+        logger.debug("Event stream opened ({})", haId.isEmpty() ? "account" : haId);
+    }
+
+    int getStreamCount() {
+        return streams.values().stream().mapToInt(Set::size).sum();
+    }
+
+    boolean hasStreams(String haId) {
+        return hasStreams(streams.get(haId)) || hasStreams(streams.get(ACCOUNT));
+    }
+
+    private static boolean hasStreams(Set<Stream> streams) {
+        return streams != null && !streams.isEmpty();
+    }
+
+    /**
+     * Publish the changes of an appliance, with the item format of the Home Connect event stream.
+     */
+    void publish(String haId, String type, List<Change> changes) {
+        if (!hasStreams(haId) || changes.isEmpty()) {
+            return;
+        }
+        long timestamp = System.currentTimeMillis() / 1000;
+        JsonArray items = new JsonArray();
+        for (Change change : changes) {
+            JsonObject item = SimulatedAppliance.toJson(change.key, change.value, change.unit);
+            item.addProperty("timestamp", timestamp);
+            item.addProperty("handling", "none");
+            item.addProperty("uri", "/api/homeappliances/" + haId + change.path);
+            item.addProperty("level", "hint");
+            items.add(item);
+        }
+        JsonObject data = new JsonObject();
+        data.add("items", items);
+        data.addProperty("haId", haId);
+
+        publish(haId, type, data.toString());
+    }
+
+    void publish(String haId, String type, String data) {
+        if (!hasStreams(haId)) {
+            return;
+        }
+        byte[] event = format(haId, type, data);
+        for (String key : new String[] { haId, ACCOUNT }) {
+            Set<Stream> appliance = streams.get(key);
+            if (appliance != null) {
+                for (Stream stream : appliance) {
+                    stream.write(event);
+                }
+            }
+        }
+    }
+
+    void keepAlive() {
+        for (Map.Entry<String, Set<Stream>> appliance : streams.entrySet()) {
+            byte[] event = format(appliance.getKey(), KEEP_ALIVE, "");
+            for (Stream stream : appliance.getValue()) {
+                stream.write(event);
+            }
+        }
+    }
+
+    void close(String haId) {
+        Set<Stream> appliance = streams.remove(haId);
+        if (appliance != null) {
+            appliance.forEach(Stream::close);
+        }
+    }
+
+    void close() {
+        streams.keySet().forEach(this::close);
+    }
+
+    private static byte[] format(String haId, String type, String data) {
+        StringBuilder event = new StringBuilder().append("event: ").append(type).append('\n').append("data: ")
+                .append(data).append('\n');
+        if (!haId.isEmpty()) {
+            event.append("id: ").append(haId).append('\n');
+        }
+        return event.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void remove(Stream stream) {
+        Set<Stream> appliance = streams.get(stream.haId);
+        if (appliance != null) {
+            appliance.remove(stream);
+        }
+    }
+
+    private class Stream implements AsyncListener {
+
+        private final String haId;
+        private final AsyncContext context;
+        private boolean closed = false;
+
+        private Stream(String haId, AsyncContext context) {
+            this.haId = haId;
+            this.context = context;
+        }
+
+        private synchronized void write(byte[] event) {
+            if (closed) {
+                return;
+            }
+            try {
+                ServletOutputStream output = context.getResponse().getOutputStream();
+                output.write(event);
+                output.flush();
+            } catch (IOException | IllegalStateException e) {
+                logger.debug("Event stream closed by client ({}): {}", haId, e.getMessage());
+                close();
+            }
+        }
+
+        private synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            remove(this);
+            try {
+                context.complete();
+            } catch (IllegalStateException e) {
+                // Already completed by the container
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            remove(this);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
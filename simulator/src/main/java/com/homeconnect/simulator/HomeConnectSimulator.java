@@ -0,0 +1,402 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.simulator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.homeconnect.simulator.SimulatedAppliance.Change;
+
+/**
+ * Embeddable fake of the Home Connect cloud, for load and latency tests and offline development.
+ *
+ * Serves the home appliance REST endpoints, the OAuth token endpoint and the event streams of a configurable
+ * number of synthetic appliances. Latency and the rates of offline appliances, rate limit and server errors
+ * can be configured, the latter also while running.
+ *
+ * <pre>
+ * HomeConnectSimulator simulator = HomeConnectSimulator.builder().appliances(1000).latency(20, 200).build();
+ * simulator.start();
+ * HomeConnectApiClient client = new HomeConnectApiClient(simulator.getUrl(), credential, null);
+ * </pre>
+ */
+public class HomeConnectSimulator implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(HomeConnectSimulator.class);
+
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_APPLIANCES = 10;
+    private static final int DEFAULT_MAX_THREADS = 200;
+    private static final long DEFAULT_EVENT_INTERVAL = 1000; // in ms
+    private static final int DEFAULT_EVENTS_PER_INTERVAL = 10;
+    private static final long DEFAULT_KEEP_ALIVE_INTERVAL = 55; // in s
+    private static final long DEFAULT_TOKEN_LIFETIME = 86400; // in s
+
+    private final int port;
+    private final int maxThreads;
+    private final long eventInterval;
+    private final int eventsPerInterval;
+    private final long keepAliveInterval;
+    private final long tokenLifetime;
+
+    private final Map<String, SimulatedAppliance> appliances = new LinkedHashMap<>();
+    private final List<SimulatedAppliance> applianceList;
+    private final EventStreams streams = new EventStreams();
+    private final AtomicLong requestCount = new AtomicLong();
+
+    private volatile long latencyMin;
+    private volatile long latencyMax;
+    private volatile double rateLimitRate;
+    private volatile double errorRate;
+
+    private Server server;
+    private ServerConnector connector;
+    private ScheduledExecutorService executor;
+
+    private HomeConnectSimulator(Builder builder) {
+        this.port = builder.port;
+        this.maxThreads = builder.maxThreads;
+        this.eventInterval = builder.eventInterval;
+        this.eventsPerInterval = builder.eventsPerInterval;
+        this.keepAliveInterval = builder.keepAliveInterval;
+        this.tokenLifetime = builder.tokenLifetime;
+        this.latencyMin = builder.latencyMin;
+        this.latencyMax = builder.latencyMax;
+        this.rateLimitRate = builder.rateLimitRate;
+        this.errorRate = builder.errorRate;
+
+        Random random = new Random(builder.seed);
+        for (int i = 0; i < builder.appliances; i++) {
+            SimulatedAppliance appliance = new SimulatedAppliance(i, random,
+                    random.nextDouble() >= builder.offlineRate);
+            appliances.put(appliance.getHaId(), appliance);
+        }
+        applianceList = Collections.unmodifiableList(new ArrayList<>(appliances.values()));
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Builder builder = builder();
+        if (args.length > 0) {
+            builder.port(Integer.parseInt(args[0]));
+        }
+        if (args.length > 1) {
+            builder.appliances(Integer.parseInt(args[1]));
+        }
+        HomeConnectSimulator simulator = builder.build();
+        Runtime.getRuntime().addShutdownHook(new Thread(simulator::close));
+        simulator.start();
+        simulator.server.join();
+    }
+
+    public synchronized void start() throws Exception {
+        if (server != null) {
+            return;
+        }
+        executor = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "homeconnect-simulator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = new Server(new QueuedThreadPool(maxThreads));
+        connector = new ServerConnector(server);
+        connector.setPort(port);
+        server.addConnector(connector);
+        server.setHandler(new SimulatorHandler(this, streams));
+        server.start();
+
+        if (eventInterval > 0 && eventsPerInterval > 0) {
+            executor.scheduleAtFixedRate(this::simulateEvents, eventInterval, eventInterval, TimeUnit.MILLISECONDS);
+        }
+        executor.scheduleAtFixedRate(streams::keepAlive, keepAliveInterval, keepAliveInterval, TimeUnit.SECONDS);
+
+        logger.info("Home Connect simulator of {} appliances listening at {}", appliances.size(), getUrl());
+    }
+
+    @Override
+    public synchronized void close() {
+        if (server == null) {
+            return;
+        }
+        streams.close();
+        executor.shutdownNow();
+        try {
+            server.stop();
+        } catch (Exception e) {
+            logger.warn("Error stopping Home Connect simulator: {}", e.getMessage());
+        }
+        server = null;
+        connector = null;
+    }
+
+    /**
+     * @return base URL of the simulator, to be used as API URL of the clients
+     */
+    public synchronized String getUrl() {
+        if (connector == null) {
+            throw new IllegalStateException("Simulator not started");
+        }
+        return "http://localhost:" + connector.getLocalPort();
+    }
+
+    public Collection<SimulatedAppliance> getAppliances() {
+        return applianceList;
+    }
+
+    public SimulatedAppliance getAppliance(String haId) {
+        return appliances.get(haId);
+    }
+
+    /**
+     * Connect or disconnect an appliance, notifying its event streams.
+     *
+     * @param haId home appliance id
+     * @param connected true if the appliance is online
+     */
+    public void setConnected(String haId, boolean connected) {
+        SimulatedAppliance appliance = appliances.get(haId);
+        if (appliance == null || appliance.isConnected() == connected) {
+            return;
+        }
+        appliance.setConnected(connected);
+        streams.publish(haId, connected ? EventStreams.CONNECTED : EventStreams.DISCONNECTED, "");
+    }
+
+    /**
+     * @param latencyMin minimum delay of a response in ms
+     * @param latencyMax maximum delay of a response in ms
+     */
+    public void setLatency(long latencyMin, long latencyMax) {
+        this.latencyMin = latencyMin;
+        this.latencyMax = Math.max(latencyMin, latencyMax);
+    }
+
+    public double getRateLimitRate() {
+        return rateLimitRate;
+    }
+
+    /**
+     * @param rateLimitRate fraction of requests answered with 429 Too Many Requests
+     */
+    public void setRateLimitRate(double rateLimitRate) {
+        this.rateLimitRate = rateLimitRate;
+    }
+
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    /**
+     * @param errorRate fraction of requests answered with 500 Internal Server Error
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    public long getTokenLifetime() {
+        return tokenLifetime;
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public int getEventStreamCount() {
+        return streams.getStreamCount();
+    }
+
+    void countRequest() {
+        requestCount.incrementAndGet();
+    }
+
+    long nextLatency(ThreadLocalRandom random) {
+        long min = latencyMin;
+        long max = latencyMax;
+        return max > min ? random.nextLong(min, max + 1) : min;
+    }
+
+    ScheduledExecutorService getExecutor() {
+        return executor;
+    }
+
+    private void simulateEvents() {
+        try {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < eventsPerInterval && !applianceList.isEmpty(); i++) {
+                SimulatedAppliance appliance = applianceList.get(random.nextInt(applianceList.size()));
+                if (!appliance.isConnected() || !streams.hasStreams(appliance.getHaId())) {
+                    continue;
+                }
+                List<Change> changes = appliance.step(random);
+                String type = changes.get(0).key.startsWith("BSH.Common.Status") ? EventStreams.STATUS
+                        : EventStreams.NOTIFY;
+                streams.publish(appliance.getHaId(), type, changes);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Error simulating events: {}", e.getMessage(), e);
+        }
+    }
+
+    public static class Builder {
+
+        private int port = DEFAULT_PORT;
+        private int appliances = DEFAULT_APPLIANCES;
+        private int maxThreads = DEFAULT_MAX_THREADS;
+        private long latencyMin = 0;
+        private long latencyMax = 0;
+        private double offlineRate = 0;
+        private double rateLimitRate = 0;
+        private double errorRate = 0;
+        private long eventInterval = DEFAULT_EVENT_INTERVAL;
+        private int eventsPerInterval = DEFAULT_EVENTS_PER_INTERVAL;
+        private long keepAliveInterval = DEFAULT_KEEP_ALIVE_INTERVAL;
+        private long tokenLifetime = DEFAULT_TOKEN_LIFETIME;
+        private long seed = 0;
+
+        private Builder() {
+        }
+
+        /**
+         * @param port port to listen at, 0 for a random free port
+         * @return this builder
+         */
+        public Builder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * @param appliances number of synthetic appliances
+         * @return this builder
+         */
+        public Builder appliances(int appliances) {
+            this.appliances = appliances;
+            return this;
+        }
+
+        /**
+         * @param maxThreads maximum number of server threads
+         * @return this builder
+         */
+        public Builder maxThreads(int maxThreads) {
+            this.maxThreads = maxThreads;
+            return this;
+        }
+
+        /**
+         * @param latencyMin minimum delay of a response in ms
+         * @param latencyMax maximum delay of a response in ms
+         * @return this builder
+         */
+        public Builder latency(long latencyMin, long latencyMax) {
+            this.latencyMin = latencyMin;
+            this.latencyMax = Math.max(latencyMin, latencyMax);
+            return this;
+        }
+
+        /**
+         * @param offlineRate fraction of appliances, that are offline and answer with 409 Conflict
+         * @return this builder
+         */
+        public Builder offlineRate(double offlineRate) {
+            this.offlineRate = offlineRate;
+            return this;
+        }
+
+        /**
+         * @param rateLimitRate fraction of requests answered with 429 Too Many Requests
+         * @return this builder
+         */
+        public Builder rateLimitRate(double rateLimitRate) {
+            this.rateLimitRate = rateLimitRate;
+            return this;
+        }
+
+        /**
+         * @param errorRate fraction of requests answered with 500 Internal Server Error
+         * @return this builder
+         */
+        public Builder errorRate(double errorRate) {
+            this.errorRate = errorRate;
+            return this;
+        }
+
+        /**
+         * @param eventInterval interval of the simulated state changes in ms, 0 to disable
+         * @param eventsPerInterval number of appliances changing their state per interval
+         * @return this builder
+         */
+        public Builder events(long eventInterval, int eventsPerInterval) {
+            this.eventInterval = eventInterval;
+            this.eventsPerInterval = eventsPerInterval;
+            return this;
+        }
+
+        /**
+         * @param keepAliveInterval interval of the KEEP-ALIVE events in s
+         * @return this builder
+         */
+        public Builder keepAliveInterval(long keepAliveInterval) {
+            this.keepAliveInterval = keepAliveInterval;
+            return this;
+        }
+
+        /**
+         * @param tokenLifetime lifetime of the issued access tokens in s
+         * @return this builder
+         */
+        public Builder tokenLifetime(long tokenLifetime) {
+            this.tokenLifetime = tokenLifetime;
+            return this;
+        }
+
+        /**
+         * @param seed seed of the generated appliances, for reproducible setups
+         * @return this builder
+         */
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public HomeConnectSimulator build() {
+            return new HomeConnectSimulator(this);
+        }
+    }
+}
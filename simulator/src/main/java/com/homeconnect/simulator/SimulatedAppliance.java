@@ -0,0 +1,341 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.simulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Synthetic home appliance of the simulator.
+ *
+ * Holds the status, settings and program state, that is served by the REST endpoints and changed by
+ * commands or the random state changes of the event simulation. All state is guarded by the appliance itself.
+ */
+public class SimulatedAppliance {
+
+    static final String STATUS_DOOR_STATE = "BSH.Common.Status.DoorState";
+    static final String STATUS_OPERATION_STATE = "BSH.Common.Status.OperationState";
+    static final String STATUS_REMOTE_CONTROL_ACTIVE = "BSH.Common.Status.RemoteControlActive";
+    static final String STATUS_REMOTE_START_ALLOWED = "BSH.Common.Status.RemoteControlStartAllowed";
+    static final String SETTING_POWER_STATE = "BSH.Common.Setting.PowerState";
+    static final String SETTING_CHILD_LOCK = "BSH.Common.Setting.ChildLock";
+    static final String OPTION_REMAINING_PROGRAM_TIME = "BSH.Common.Option.RemainingProgramTime";
+    static final String OPTION_PROGRAM_PROGRESS = "BSH.Common.Option.ProgramProgress";
+    static final String OPTION_START_IN_RELATIVE = "BSH.Common.Option.StartInRelative";
+    static final String ROOT_ACTIVE_PROGRAM = "BSH.Common.Root.ActiveProgram";
+    static final String ROOT_SELECTED_PROGRAM = "BSH.Common.Root.SelectedProgram";
+
+    static final String DOOR_OPEN = "BSH.Common.EnumType.DoorState.Open";
+    static final String DOOR_CLOSED = "BSH.Common.EnumType.DoorState.Closed";
+    static final String OPERATION_READY = "BSH.Common.EnumType.OperationState.Ready";
+    static final String OPERATION_RUN = "BSH.Common.EnumType.OperationState.Run";
+    static final String OPERATION_FINISHED = "BSH.Common.EnumType.OperationState.Finished";
+    static final String POWER_ON = "BSH.Common.EnumType.PowerState.On";
+
+    private static final int PROGRAM_DURATION = 3600; // in s
+
+    static enum Type {
+        DISHWASHER("Dishwasher", "SMV68TX06E", "Dishcare.Dishwasher.Program.Eco50",
+                "Dishcare.Dishwasher.Program.Auto2", "Dishcare.Dishwasher.Program.Quick45"),
+        OVEN("Oven", "HBG6764S6", "Cooking.Oven.Program.HeatingMode.HotAir",
+                "Cooking.Oven.Program.HeatingMode.TopBottomHeating", "Cooking.Oven.Program.HeatingMode.PizzaSetting"),
+        WASHER("Washer", "WAW28750", "LaundryCare.Washer.Program.Cotton", "LaundryCare.Washer.Program.EasyCare",
+                "LaundryCare.Washer.Program.Mix"),
+        DRYER("Dryer", "WTX87M40", "LaundryCare.Dryer.Program.Cotton", "LaundryCare.Dryer.Program.Synthetic"),
+        FRIDGE_FREEZER("FridgeFreezer", "KIN86AD30"),
+        COFFEE_MAKER("CoffeeMaker", "TI9575X1DE", "ConsumerProducts.CoffeeMaker.Program.Beverage.Espresso",
+                "ConsumerProducts.CoffeeMaker.Program.Beverage.Coffee");
+
+        private final String name;
+        private final String vib;
+        private final List<String> programs;
+
+        private Type(String name, String vib, String... programs) {
+            this.name = name;
+            this.vib = vib;
+            this.programs = Collections.unmodifiableList(Arrays.asList(programs));
+        }
+    }
+
+    /**
+     * Change of a value, published as item of an event.
+     */
+    static class Change {
+
+        final String path;
+        final String key;
+        final Object value;
+        final String unit;
+
+        Change(String path, String key, Object value, String unit) {
+            this.path = path;
+            this.key = key;
+            this.value = value;
+            this.unit = unit;
+        }
+    }
+
+    private final String haId;
+    private final Type type;
+    private final String brand;
+    private final String enumber;
+
+    private final Map<String, Object> status = new LinkedHashMap<>();
+    private final Map<String, Object> settings = new LinkedHashMap<>();
+    private final Map<String, Object> options = new LinkedHashMap<>();
+
+    private boolean connected;
+    private String selectedProgram;
+    private String activeProgram;
+
+    SimulatedAppliance(int index, Random random, boolean connected) {
+        Type[] types = Type.values();
+        this.type = types[index % types.length];
+        this.brand = random.nextBoolean() ? "Siemens" : "Bosch";
+        this.haId = String.format("%s-%s-%012X", brand.toUpperCase(), type.vib, index);
+        this.enumber = type.vib + "/01";
+        this.connected = connected;
+
+        status.put(STATUS_DOOR_STATE, DOOR_CLOSED);
+        status.put(STATUS_OPERATION_STATE, OPERATION_READY);
+        status.put(STATUS_REMOTE_CONTROL_ACTIVE, Boolean.TRUE);
+        status.put(STATUS_REMOTE_START_ALLOWED, random.nextBoolean());
+
+        settings.put(SETTING_POWER_STATE, POWER_ON);
+        settings.put(SETTING_CHILD_LOCK, Boolean.FALSE);
+    }
+
+    public String getHaId() {
+        return haId;
+    }
+
+    public synchronized boolean isConnected() {
+        return connected;
+    }
+
+    synchronized void setConnected(boolean connected) {
+        this.connected = connected;
+    }
+
+    synchronized JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("name", type.name + " " + haId.substring(haId.length() - 4));
+        json.addProperty("brand", brand);
+        json.addProperty("vib", type.vib);
+        json.addProperty("connected", connected);
+        json.addProperty("type", type.name);
+        json.addProperty("enumber", enumber);
+        json.addProperty("haId", haId);
+        return json;
+    }
+
+    synchronized JsonArray getStatus() {
+        return toJson(status);
+    }
+
+    synchronized JsonObject getStatus(String key) {
+        return toJson(key, status.get(key), null);
+    }
+
+    synchronized JsonArray getSettings() {
+        return toJson(settings);
+    }
+
+    synchronized JsonObject getSetting(String key) {
+        return toJson(key, settings.get(key), null);
+    }
+
+    synchronized Change putSetting(String key, Object value) {
+        settings.put(key, value);
+        return new Change("/settings/" + key, key, value, null);
+    }
+
+    synchronized JsonArray getPrograms() {
+        boolean available = activeProgram == null;
+        JsonArray programs = new JsonArray();
+        for (String program : type.programs) {
+            JsonObject constraints = new JsonObject();
+            constraints.addProperty("available", available);
+            constraints.addProperty("execution", "selectandstart");
+
+            JsonObject json = new JsonObject();
+            json.addProperty("key", program);
+            json.add("constraints", constraints);
+            programs.add(json);
+        }
+        return programs;
+    }
+
+    boolean hasProgram(String program) {
+        return type.programs.contains(program);
+    }
+
+    JsonArray getAvailableProgramOptions() {
+        JsonObject constraints = new JsonObject();
+        constraints.addProperty("min", 0);
+        constraints.addProperty("max", 86340);
+        constraints.addProperty("stepsize", 60);
+
+        JsonObject option = new JsonObject();
+        option.addProperty("key", OPTION_START_IN_RELATIVE);
+        option.addProperty("type", "Int");
+        option.addProperty("unit", "seconds");
+        option.add("constraints", constraints);
+
+        JsonArray options = new JsonArray();
+        options.add(option);
+        return options;
+    }
+
+    synchronized String getActiveProgram() {
+        return activeProgram;
+    }
+
+    synchronized String getSelectedProgram() {
+        return selectedProgram;
+    }
+
+    synchronized JsonArray getOptions() {
+        return toJson(options);
+    }
+
+    synchronized JsonObject getOption(String key) {
+        return toJson(key, options.get(key), getUnit(key));
+    }
+
+    synchronized List<Change> putOption(String key, Object value) {
+        options.put(key, value);
+        return Collections.singletonList(new Change("/programs/active/options/" + key, key, value, getUnit(key)));
+    }
+
+    synchronized List<Change> selectProgram(String program) {
+        selectedProgram = program;
+        return Collections.singletonList(new Change("/programs/selected", ROOT_SELECTED_PROGRAM, program, null));
+    }
+
+    synchronized List<Change> startProgram(String program) {
+        List<Change> changes = new ArrayList<>();
+        selectedProgram = program;
+        activeProgram = program;
+        options.put(OPTION_REMAINING_PROGRAM_TIME, PROGRAM_DURATION);
+        options.put(OPTION_PROGRAM_PROGRESS, 0);
+        status.put(STATUS_OPERATION_STATE, OPERATION_RUN);
+
+        changes.add(new Change("/programs/active", ROOT_ACTIVE_PROGRAM, program, null));
+        changes.add(new Change("/status/" + STATUS_OPERATION_STATE, STATUS_OPERATION_STATE, OPERATION_RUN, null));
+        return changes;
+    }
+
+    synchronized List<Change> stopProgram() {
+        List<Change> changes = new ArrayList<>();
+        activeProgram = null;
+        options.clear();
+        status.put(STATUS_OPERATION_STATE, OPERATION_READY);
+
+        changes.add(new Change("/programs/active", ROOT_ACTIVE_PROGRAM, JsonNull.INSTANCE, null));
+        changes.add(new Change("/status/" + STATUS_OPERATION_STATE, STATUS_OPERATION_STATE, OPERATION_READY, null));
+        return changes;
+    }
+
+    /**
+     * Advance the simulated state by one random step, e.g. the progress of a running program or a door opened.
+     *
+     * @param random source of randomness
+     * @return changed values
+     */
+    synchronized List<Change> step(Random random) {
+        if (activeProgram != null) {
+            Object value = options.get(OPTION_REMAINING_PROGRAM_TIME);
+            int remaining = value instanceof Number ? ((Number) value).intValue() : PROGRAM_DURATION;
+            remaining = Math.max(0, remaining - 60);
+            int progress = (PROGRAM_DURATION - remaining) * 100 / PROGRAM_DURATION;
+            if (remaining == 0) {
+                List<Change> changes = stopProgram();
+                status.put(STATUS_OPERATION_STATE, OPERATION_FINISHED);
+                changes.set(1, new Change("/status/" + STATUS_OPERATION_STATE, STATUS_OPERATION_STATE,
+                        OPERATION_FINISHED, null));
+                return changes;
+            }
+            List<Change> changes = new ArrayList<>();
+            changes.addAll(putOption(OPTION_REMAINING_PROGRAM_TIME, remaining));
+            changes.addAll(putOption(OPTION_PROGRAM_PROGRESS, progress));
+            return changes;
+        }
+        if (!type.programs.isEmpty() && random.nextInt(10) == 0) {
+            return startProgram(type.programs.get(random.nextInt(type.programs.size())));
+        }
+        String door = DOOR_CLOSED.equals(status.get(STATUS_DOOR_STATE)) ? DOOR_OPEN : DOOR_CLOSED;
+        status.put(STATUS_DOOR_STATE, door);
+        return Collections.singletonList(new Change("/status/" + STATUS_DOOR_STATE, STATUS_DOOR_STATE, door, null));
+    }
+
+    private static String getUnit(String key) {
+        if (OPTION_REMAINING_PROGRAM_TIME.equals(key) || OPTION_START_IN_RELATIVE.equals(key)) {
+            return "seconds";
+        }
+        if (OPTION_PROGRAM_PROGRESS.equals(key)) {
+            return "%";
+        }
+        return null;
+    }
+
+    private static JsonArray toJson(Map<String, Object> values) {
+        JsonArray json = new JsonArray();
+        values.forEach((key, value) -> json.add(toJson(key, value, getUnit(key))));
+        return json;
+    }
+
+    static JsonObject toJson(String key, Object value, String unit) {
+        JsonObject json = new JsonObject();
+        json.addProperty("key", key);
+        json.add("value", toJsonValue(value));
+        if (unit != null) {
+            json.addProperty("unit", unit);
+        }
+        return json;
+    }
+
+    static JsonElement toJsonValue(Object value) {
+        if (value == null) {
+            return JsonNull.INSTANCE;
+        }
+        if (value instanceof JsonElement) {
+            return (JsonElement) value;
+        }
+        if (value instanceof Boolean) {
+            return new JsonPrimitive((Boolean) value);
+        }
+        if (value instanceof Number) {
+            return new JsonPrimitive((Number) value);
+        }
+        return new JsonPrimitive(value.toString());
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright 2020-2022 ISC Konstanz
+ *
+ * This file is part of OpenHomeConnect.
+ * For more information visit https://github.com/isc-konstanz/OpenHomeConnect
+ *
+ * OpenHomeConnect is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenHomeConnect is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with OpenHomeConnect.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.homeconnect.simulator;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.homeconnect.simulator.SimulatedAppliance.Change;
+
+/**
+ * Routes the requests of the simulator to the simulated appliances and injects the configured faults.
+ */
+class SimulatorHandler extends AbstractHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(SimulatorHandler.class);
+
+    static final String API_PATH = "/api/homeappliances";
+    static final String TOKEN_PATH = "/security/oauth/token";
+
+    private static final String BSH_JSON_V1 = "application/vnd.bsh.sdk.v1+json";
+    private static final String APPLICATION_JSON = "application/json";
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int RETRY_AFTER = 10; // in s
+
+    private final HomeConnectSimulator simulator;
+    private final EventStreams streams;
+    private final JsonParser parser = new JsonParser();
+
+    SimulatorHandler(HomeConnectSimulator simulator, EventStreams streams) {
+        this.simulator = simulator;
+        this.streams = streams;
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        baseRequest.setHandled(true);
+        simulator.countRequest();
+
+        String method = request.getMethod();
+        if (TOKEN_PATH.equals(target)) {
+            respond(response, "POST".equals(method) ? token()
+                    : error(HttpServletResponse.SC_METHOD_NOT_ALLOWED, "invalid_request", "Method not allowed"));
+            return;
+        }
+        if (!target.startsWith(API_PATH)) {
+            respond(response, error(HttpServletResponse.SC_NOT_FOUND, "404", "Resource not found"));
+            return;
+        }
+        String authorization = request.getHeader("Authorization");
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            respond(response, error(HttpServletResponse.SC_UNAUTHORIZED, "invalid_token", "Missing access token"));
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < simulator.getRateLimitRate()) {
+            response.setHeader("Retry-After", String.valueOf(RETRY_AFTER));
+            respond(response, error(HTTP_TOO_MANY_REQUESTS, "429", "The rate limit \"10 successive error "
+                    + "calls in 10 minutes\" was reached. Requests are blocked during the remaining period of "
+                    + RETRY_AFTER + " seconds."));
+            return;
+        }
+        if (random.nextDouble() < simulator.getErrorRate()) {
+            respond(response, error(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "500", "Internal Server Error"));
+            return;
+        }
+
+        String[] path = target.substring(API_PATH.length()).replaceFirst("^/", "").split("/");
+        if (path.length == 1 && "events".equals(path[0]) && "GET".equals(method)) {
+            streams.open(request, response);
+            return;
+        }
+        if (path.length == 2 && "events".equals(path[1]) && "GET".equals(method)) {
+            SimulatedAppliance appliance = simulator.getAppliance(path[0]);
+            if (appliance == null) {
+                respond(response, notFound(path[0]));
+            } else {
+                streams.open(appliance.getHaId(), request, response);
+            }
+            return;
+        }
+        Reply routed = route(method, path, readBody(request));
+        Reply reply = "GET".equals(method) ? tag(routed, request.getHeader("If-None-Match")) : routed;
+        long latency = simulator.nextLatency(random);
+        if (latency > 0) {
+            AsyncContext context = request.startAsync();
+            simulator.getExecutor().schedule(() -> {
+                try {
+                    respond((HttpServletResponse) context.getResponse(), reply);
+                } catch (IOException e) {
+                    logger.debug("Failed to respond to {} {}: {}", method, target, e.getMessage());
+                } finally {
+                    context.complete();
+                }
+            }, latency, TimeUnit.MILLISECONDS);
+        } else {
+            respond(response, reply);
+        }
+    }
+
+    private Reply route(String method, String[] path, JsonObject body) {
+        if (path.length == 0 || path[0].isEmpty()) {
+            if (!"GET".equals(method)) {
+                return methodNotAllowed();
+            }
+            JsonArray appliances = new JsonArray();
+            simulator.getAppliances().forEach(appliance -> appliances.add(appliance.toJson()));
+            return data("homeappliances", appliances);
+        }
+        SimulatedAppliance appliance = simulator.getAppliance(path[0]);
+        if (appliance == null) {
+            return notFound(path[0]);
+        }
+        if (path.length == 1) {
+            return "GET".equals(method) ? data(appliance.toJson()) : methodNotAllowed();
+        }
+        if (!appliance.isConnected()) {
+            return error(HttpServletResponse.SC_CONFLICT, "SDK.Error.HomeAppliance.Connection.Initialization.Failed",
+                    "HomeAppliance is offline");
+        }
+        switch (path[1]) {
+        case "status":
+            if (!"GET".equals(method)) {
+                return methodNotAllowed();
+            }
+            return path.length == 2 ? data("status", appliance.getStatus()) : data(appliance.getStatus(path[2]));
+        case "settings":
+            if (path.length == 2) {
+                return "GET".equals(method) ? data("settings", appliance.getSettings()) : methodNotAllowed();
+            }
+            if ("PUT".equals(method)) {
+                Object value = getValue(body);
+                if (value == null) {
+                    return invalidBody();
+                }
+                publish(appliance, EventStreams.NOTIFY,
+                        Collections.singletonList(appliance.putSetting(path[2], value)));
+                return noContent();
+            }
+            return "GET".equals(method) ? data(appliance.getSetting(path[2])) : methodNotAllowed();
+        case "programs":
+            return routePrograms(method, appliance, path, body);
+        default:
+            return error(HttpServletResponse.SC_NOT_FOUND, "404", "Resource not found");
+        }
+    }
+
+    private Reply routePrograms(String method, SimulatedAppliance appliance, String[] path, JsonObject body) {
+        if (path.length == 2) {
+            return "GET".equals(method) ? data("programs", appliance.getPrograms()) : methodNotAllowed();
+        }
+        switch (path[2]) {
+        case "available":
+            if (!"GET".equals(method)) {
+                return methodNotAllowed();
+            }
+            if (path.length == 3) {
+                return data("programs", appliance.getPrograms());
+            }
+            if (!appliance.hasProgram(path[3])) {
+                return error(HttpServletResponse.SC_NOT_FOUND, "SDK.Error.UnsupportedProgram",
+                        "Program not supported: " + path[3]);
+            }
+            JsonObject program = new JsonObject();
+            program.addProperty("key", path[3]);
+            program.add("options", appliance.getAvailableProgramOptions());
+            return data(program);
+
+        case "active":
+        case "selected":
+            boolean active = "active".equals(path[2]);
+            if (path.length > 3 && "options".equals(path[3])) {
+                return routeOptions(method, appliance, path, body);
+            }
+            switch (method) {
+            case "GET":
+                String key = active ? appliance.getActiveProgram() : appliance.getSelectedProgram();
+                if (key == null) {
+                    return active ? error(HttpServletResponse.SC_NOT_FOUND, "SDK.Error.NoProgramActive",
+                            "There is no program active")
+                            : error(HttpServletResponse.SC_NOT_FOUND, "SDK.Error.NoProgramSelected",
+                                    "There is no program selected");
+                }
+                JsonObject current = new JsonObject();
+                current.addProperty("key", key);
+                current.add("options", appliance.getOptions());
+                return data(current);
+            case "PUT":
+                JsonObject data = getData(body);
+                JsonElement programKey = data != null ? data.get("key") : null;
+                if (programKey == null || !programKey.isJsonPrimitive()) {
+                    return invalidBody();
+                }
+                if (!appliance.hasProgram(programKey.getAsString())) {
+                    return error(HttpServletResponse.SC_NOT_FOUND, "SDK.Error.UnsupportedProgram",
+                            "Program not supported: " + programKey.getAsString());
+                }
+                if (active && appliance.getActiveProgram() != null) {
+                    return error(HttpServletResponse.SC_CONFLICT, "SDK.Error.WrongOperationState",
+                            "Request cannot be performed since OperationState is not Ready");
+                }
+                publish(appliance, EventStreams.NOTIFY, active ? appliance.startProgram(programKey.getAsString())
+                        : appliance.selectProgram(programKey.getAsString()));
+                return noContent();
+            case "DELETE":
+                if (!active) {
+                    return methodNotAllowed();
+                }
+                if (appliance.getActiveProgram() == null) {
+                    return error(HttpServletResponse.SC_NOT_FOUND, "SDK.Error.NoProgramActive",
+                            "There is no program active");
+                }
+                publish(appliance, EventStreams.NOTIFY, appliance.stopProgram());
+                return noContent();
+            default:
+                return methodNotAllowed();
+            }
+        default:
+            return error(HttpServletResponse.SC_NOT_FOUND, "404", "Resource not found");
+        }
+    }
+
+    private Reply routeOptions(String method, SimulatedAppliance appliance, String[] path, JsonObject body) {
+        if ("GET".equals(method)) {
+            return path.length == 4 ? data("options", appliance.getOptions()) : data(appliance.getOption(path[4]));
+        }
+        if (!"PUT".equals(method)) {
+            return methodNotAllowed();
+        }
+        if (path.length > 4) {
+            Object value = getValue(body);
+            if (value == null) {
+                return invalidBody();
+            }
+            publish(appliance, EventStreams.NOTIFY, appliance.putOption(path[4], value));
+            return noContent();
+        }
+        JsonObject data = getData(body);
+        JsonElement options = data != null ? data.get("options") : null;
+        if (options == null || !options.isJsonArray()) {
+            return invalidBody();
+        }
+        for (JsonElement option : options.getAsJsonArray()) {
+            JsonElement key = option.isJsonObject() ? option.getAsJsonObject().get("key") : null;
+            Object value = option.isJsonObject() ? toValue(option.getAsJsonObject().get("value")) : null;
+            if (key == null || value == null) {
+                return invalidBody();
+            }
+            publish(appliance, EventStreams.NOTIFY, appliance.putOption(key.getAsString(), value));
+        }
+        return noContent();
+    }
+
+    private void publish(SimulatedAppliance appliance, String type, List<Change> changes) {
+        streams.publish(appliance.getHaId(), type, changes);
+    }
+
+    private Reply token() {
+        JsonObject token = new JsonObject();
+        token.addProperty("id_token", UUID.randomUUID().toString());
+        token.addProperty("access_token", UUID.randomUUID().toString());
+        token.addProperty("expires_in", simulator.getTokenLifetime());
+        token.addProperty("scope", "IdentifyAppliance Monitor Control Settings");
+        token.addProperty("refresh_token", UUID.randomUUID().toString());
+        token.addProperty("token_type", "Bearer");
+        return new Reply(HttpServletResponse.SC_OK, APPLICATION_JSON, token.toString());
+    }
+
+    private JsonObject readBody(HttpServletRequest request) throws IOException {
+        if (request.getContentLength() == 0 || "GET".equals(request.getMethod())) {
+            return new JsonObject();
+        }
+        try (InputStreamReader reader = new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8)) {
+            JsonElement body = parser.parse(reader);
+            return body.isJsonObject() ? body.getAsJsonObject() : new JsonObject();
+        } catch (JsonParseException e) {
+            return new JsonObject();
+        }
+    }
+
+    private static JsonObject getData(JsonObject body) {
+        JsonElement data = body.get("data");
+        return data != null && data.isJsonObject() ? data.getAsJsonObject() : null;
+    }
+
+    private static Object getValue(JsonObject body) {
+        JsonObject data = getData(body);
+        return data != null ? toValue(data.get("value")) : null;
+    }
+
+    private static Object toValue(JsonElement value) {
+        if (value == null || !value.isJsonPrimitive()) {
+            return null;
+        }
+        JsonPrimitive primitive = value.getAsJsonPrimitive();
+        if (primitive.isBoolean()) {
+            return primitive.getAsBoolean();
+        }
+        if (primitive.isNumber()) {
+            return primitive.getAsNumber();
+        }
+        return primitive.getAsString();
+    }
+
+    /**
+     * Tag successful replies with the entity tag of their body, replying 304 Not Modified if it matches.
+     */
+    private static Reply tag(Reply reply, String ifNoneMatch) {
+        if (reply.code != HttpServletResponse.SC_OK || reply.body == null) {
+            return reply;
+        }
+        String etag = "\"" + Integer.toHexString(reply.body.hashCode()) + "\"";
+        if (etag.equals(ifNoneMatch)) {
+            return new Reply(HttpServletResponse.SC_NOT_MODIFIED, null, null, etag);
+        }
+        return new Reply(reply.code, reply.contentType, reply.body, etag);
+    }
+
+    private static void respond(HttpServletResponse response, Reply reply) throws IOException {
+        response.setStatus(reply.code);
+        if (reply.etag != null) {
+            response.setHeader("ETag", reply.etag);
+        }
+        if (reply.body != null) {
+            response.setContentType(reply.contentType);
+            response.setCharacterEncoding("UTF-8");
+            byte[] body = reply.body.getBytes(StandardCharsets.UTF_8);
+            response.setContentLength(body.length);
+            response.getOutputStream().write(body);
+        }
+    }
+
+    private static Reply data(String listName, JsonArray list) {
+        JsonObject data = new JsonObject();
+        data.add(listName, list);
+        return data(data);
+    }
+
+    private static Reply data(JsonObject data) {
+        JsonObject json = new JsonObject();
+        json.add("data", data);
+        return new Reply(HttpServletResponse.SC_OK, BSH_JSON_V1, json.toString());
+    }
+
+    private static Reply noContent() {
+        return new Reply(HttpServletResponse.SC_NO_CONTENT, null, null);
+    }
+
+    private static Reply notFound(String haId) {
+        return error(HttpServletResponse.SC_NOT_FOUND, "SDK.Error.HomeAppliance.NotFound",
+                "HomeAppliance not found: " + haId);
+    }
+
+    private static Reply methodNotAllowed() {
+        return error(HttpServletResponse.SC_METHOD_NOT_ALLOWED, "405", "Method not allowed");
+    }
+
+    private static Reply invalidBody() {
+        return error(HttpServletResponse.SC_BAD_REQUEST, "SDK.Error.InvalidRequest", "Invalid request body");
+    }
+
+    private static Reply error(int code, String key, String description) {
+        JsonObject error = new JsonObject();
+        error.addProperty("key", key);
+        error.addProperty("description", description);
+
+        JsonObject json = new JsonObject();
+        json.add("error", error);
+        return new Reply(code, BSH_JSON_V1, json.toString());
+    }
+
+    private static class Reply {
+
+        private final int code;
+        private final String contentType;
+        private final String body;
+        private final String etag;
+
+        private Reply(int code, String contentType, String body) {
+            this(code, contentType, body, null);
+        }
+
+        private Reply(int code, String contentType, String body, String etag) {
+            this.code = code;
+            this.contentType = contentType;
+            this.body = body;
+            this.etag = etag;
+        }
+    }
+}